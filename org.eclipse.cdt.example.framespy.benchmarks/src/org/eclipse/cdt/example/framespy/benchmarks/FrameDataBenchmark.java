@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.Query;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMData;
+import org.eclipse.cdt.example.framespy.FrameDataCache;
+import org.eclipse.cdt.example.framespy.FrameSpyStackService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures FrameSpyStackService's handling of getFrameData(): wrapping
+ * the backend's data and caching it for the current suspend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameDataBenchmark {
+
+	private FrameDataCache fCache;
+	private IFrameDMData fBaseData;
+	private int fLevel;
+
+	@Setup(Level.Trial)
+	public void setUp(final SimulatedBackend backend) {
+		// The same cache and wrapping as FrameSpyStackService, over the stub stack service
+		fCache = new FrameDataCache(backend.executor) {
+			@Override
+			protected void fetchFrameData(IFrameDMContext frameDmc, final DataRequestMonitor<IFrameDMData> rm) {
+				backend.stackService.getFrameData(frameDmc, new DataRequestMonitor<IFrameDMData>(backend.executor, rm) {
+					@Override
+					protected void handleSuccess() {
+						rm.done(FrameSpyStackService.wrapFrameData(getData()));
+					}
+				});
+			}
+		};
+		fBaseData = new StubContexts.FrameData(0);
+	}
+
+	private IFrameDMContext nextFrame(SimulatedBackend backend) {
+		fLevel = (fLevel + 1) % backend.stackDepth;
+		return new StubContexts.FrameDMContext(backend.thread, fLevel);
+	}
+
+	@Benchmark
+	public String wrapOnly() {
+		return FrameSpyStackService.wrapFrameData(fBaseData).getFunction();
+	}
+
+	@Benchmark
+	public IFrameDMData newSuspend(final SimulatedBackend backend) throws Exception {
+		final IFrameDMContext frame = nextFrame(backend);
+		return backend.call(new Query<IFrameDMData>() {
+			@Override
+			protected void execute(DataRequestMonitor<IFrameDMData> rm) {
+				fCache.invalidate(backend.thread);
+				fCache.getFrameData(frame, rm);
+			}
+		});
+	}
+
+	@Benchmark
+	public IFrameDMData sameSuspend(final SimulatedBackend backend) throws Exception {
+		final IFrameDMContext frame = nextFrame(backend);
+		return backend.call(new Query<IFrameDMData>() {
+			@Override
+			protected void execute(DataRequestMonitor<IFrameDMData> rm) {
+				fCache.getFrameData(frame, rm);
+			}
+		});
+	}
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.Query;
+import org.eclipse.cdt.example.framespy.FrameRecord;
+import org.eclipse.cdt.example.framespy.FrameRecordBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures what FrameSpyView.logFrameInfo() costs for each suspend event:
+ * getting a complete frame snapshot from the FrameSpyService and adding
+ * the record to the log buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameSnapshotBenchmark {
+
+	private final FrameRecordBuffer fBuffer = new FrameRecordBuffer(100000, 20*1024*1024);
+
+	@Benchmark
+	public FrameRecord logFrameInfo(final SimulatedBackend backend) throws Exception {
+		FrameRecord record = backend.call(new Query<FrameRecord>() {
+			@Override
+			protected void execute(DataRequestMonitor<FrameRecord> rm) {
+				// Every event is a new suspend, so nothing is cached
+				backend.spyService.eventDispatched(backend.suspendedEvent);
+				backend.spyService.getFrameSnapshot(backend.thread, rm);
+			}
+		});
+		fBuffer.add(record);
+		return record;
+	}
+}
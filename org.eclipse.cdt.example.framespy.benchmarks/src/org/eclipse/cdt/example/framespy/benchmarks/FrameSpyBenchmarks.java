@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the Frame Spy benchmarks.
+ *
+ * Each benchmark reports its throughput and, through sample mode, its
+ * latency percentiles (p99 included).  The GC profiler adds the allocation
+ * rate, normalized per operation (gc.alloc.rate.norm), i.e. per event.
+ * Arguments are passed to JMH, e.g. "-p latencyMicros=0" or a benchmark name.
+ */
+public class FrameSpyBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.include(FrameSpyBenchmarks.class.getPackage().getName() + ".*Benchmark")
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.warmupIterations(5)
+				.measurementIterations(10)
+				.forks(1)
+				.build();
+		new Runner(options).run();
+	}
+}
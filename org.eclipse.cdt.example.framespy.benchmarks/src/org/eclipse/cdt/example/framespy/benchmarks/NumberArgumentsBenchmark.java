@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.Query;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IVariableDMContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures FrameSpyService.getNumberArguments(), for a new suspend and for
+ * a frame already queried during the current suspend, and compares it to
+ * counting the contexts returned by IStack.getArguments().
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NumberArgumentsBenchmark {
+
+	private int fLevel;
+
+	private IFrameDMContext nextFrame(SimulatedBackend backend) {
+		fLevel = (fLevel + 1) % backend.stackDepth;
+		return new StubContexts.FrameDMContext(backend.thread, fLevel);
+	}
+
+	@Benchmark
+	public Integer newSuspend(final SimulatedBackend backend) throws Exception {
+		final IFrameDMContext frame = nextFrame(backend);
+		return backend.call(new Query<Integer>() {
+			@Override
+			protected void execute(DataRequestMonitor<Integer> rm) {
+				backend.spyService.eventDispatched(backend.suspendedEvent);
+				backend.spyService.getNumberArguments(frame, rm);
+			}
+		});
+	}
+
+	@Benchmark
+	public Integer sameSuspend(final SimulatedBackend backend) throws Exception {
+		final IFrameDMContext frame = nextFrame(backend);
+		return backend.call(new Query<Integer>() {
+			@Override
+			protected void execute(DataRequestMonitor<Integer> rm) {
+				backend.spyService.getNumberArguments(frame, rm);
+			}
+		});
+	}
+
+	@Benchmark
+	public Integer stackGetArguments(final SimulatedBackend backend) throws Exception {
+		final IFrameDMContext frame = nextFrame(backend);
+		return backend.call(new Query<Integer>() {
+			@Override
+			protected void execute(final DataRequestMonitor<Integer> rm) {
+				backend.stackService.getArguments(frame, new DataRequestMonitor<IVariableDMContext[]>(backend.executor, rm) {
+					@Override
+					protected void handleSuccess() {
+						rm.done(getData().length);
+					}
+				});
+			}
+		});
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.dsf.concurrent.DefaultDsfExecutor;
+import org.eclipse.cdt.dsf.concurrent.Query;
+import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.example.framespy.FrameSpyService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A DSF session running on a {@link DefaultDsfExecutor}, with stub stack
+ * and command control services simulating GDB and its target.
+ *
+ * Every benchmark runs with each combination of the parameters below.
+ */
+@State(Scope.Benchmark)
+public class SimulatedBackend {
+
+	/** Delay before the simulated GDB replies to a request, in microseconds */
+	@Param({ "0", "100" })
+	public int latencyMicros;
+
+	/** Number of arguments of every frame */
+	@Param({ "2", "32" })
+	public int argumentCount;
+
+	/** Number of frames of the stack */
+	@Param({ "8", "128" })
+	public int stackDepth;
+
+	public DefaultDsfExecutor executor;
+	public DsfSession session;
+	public StubStackService stackService;
+	public StubCommandControl commandControl;
+	public FrameSpyService spyService;
+	public StubContexts.ThreadDMContext thread;
+	public StubContexts.SuspendedEvent suspendedEvent;
+
+	private String fStackListArgumentsReply;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StringBuilder reply = new StringBuilder("^done,stack-args=[frame={level=\"0\",args=[");
+		for (int i = 0; i < argumentCount; i++) {
+			reply.append(i == 0 ? "" : ",").append("name=\"arg").append(i).append('"');
+		}
+		fStackListArgumentsReply = reply.append("]}]").toString();
+
+		executor = new DefaultDsfExecutor("framespy.benchmark");
+		session = DsfSession.startSession(executor, "framespy.benchmark");
+		stackService = new StubStackService(session, this);
+		commandControl = new StubCommandControl(session, this);
+		spyService = new StubbedFrameSpyService(session, stackService, commandControl);
+		thread = new StubContexts.ThreadDMContext(session.getId(), "1");
+		suspendedEvent = new StubContexts.SuspendedEvent(thread);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		DsfSession.endSession(session);
+		executor.shutdown();
+	}
+
+	public int getArgumentCount() {
+		return argumentCount;
+	}
+
+	public int getStackDepth() {
+		return stackDepth;
+	}
+
+	/**
+	 * Returns the MI output the simulated GDB gives for the specified command.
+	 */
+	public String getReply(String operation) {
+		if ("-stack-list-arguments".equals(operation)) {
+			return fStackListArgumentsReply;
+		}
+		return "^done";
+	}
+
+	/**
+	 * Runs the specified reply on the executor once the simulated latency has elapsed.
+	 */
+	public void reply(Runnable runnable) {
+		if (latencyMicros > 0) {
+			executor.schedule(runnable, latencyMicros, TimeUnit.MICROSECONDS);
+		} else {
+			executor.execute(runnable);
+		}
+	}
+
+	/**
+	 * Runs an asynchronous request on the DSF executor and waits for its result.
+	 */
+	public <V> V call(Query<V> query) throws Exception {
+		executor.execute(query);
+		return query.get();
+	}
+}
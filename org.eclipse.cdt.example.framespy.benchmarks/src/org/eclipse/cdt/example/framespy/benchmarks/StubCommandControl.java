@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
+import org.eclipse.cdt.dsf.debug.service.command.ICommand;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandListener;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandResult;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandToken;
+import org.eclipse.cdt.dsf.debug.service.command.IEventListener;
+import org.eclipse.cdt.dsf.gdb.service.command.GDBControlDMContext;
+import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
+import org.eclipse.cdt.dsf.mi.service.command.CommandFactory;
+import org.eclipse.cdt.dsf.mi.service.command.MIParser;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MICommand;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOutput;
+import org.eclipse.cdt.dsf.service.AbstractDsfService;
+import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.example.framespy.Activator;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A command control service that answers MI commands from a simulated
+ * target.  Replies are real MI output strings, parsed the same way as
+ * GDB's output, so the cost of parsing is part of the measurements.
+ */
+public class StubCommandControl extends AbstractDsfService implements IMICommandControl {
+
+	private final SimulatedBackend fBackend;
+	private final CommandFactory fCommandFactory = new CommandFactory();
+	private final ICommandControlDMContext fContext;
+
+	public StubCommandControl(DsfSession session, SimulatedBackend backend) {
+		super(session);
+		fBackend = backend;
+		fContext = new GDBControlDMContext(session.getId(), "benchmark");
+	}
+
+	@Override
+	protected BundleContext getBundleContext() {
+		// Never registered with OSGi
+		return null;
+	}
+
+	@Override
+	public <V extends ICommandResult> ICommandToken queueCommand(final ICommand<V> command, final DataRequestMonitor<V> rm) {
+		fBackend.reply(new Runnable() {
+			@Override
+			public void run() {
+				if (!(command instanceof MICommand)) {
+					rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.NOT_SUPPORTED,
+							"Only MI commands are supported by the simulated backend", null));
+					return;
+				}
+
+				MICommand<?> miCommand = (MICommand<?>)command;
+				MIOutput output = new MIParser().parse(fBackend.getReply(miCommand.getOperation()));
+				@SuppressWarnings("unchecked")
+				V result = (V)miCommand.getResult(output);
+				rm.done(result);
+			}
+		});
+
+		return new ICommandToken() {
+			@Override
+			public ICommand<? extends ICommandResult> getCommand() {
+				return command;
+			}
+		};
+	}
+
+	@Override
+	public void removeCommand(ICommandToken token) {
+	}
+
+	@Override
+	public void addCommandListener(ICommandListener listener) {
+	}
+
+	@Override
+	public void removeCommandListener(ICommandListener listener) {
+	}
+
+	@Override
+	public void addEventListener(IEventListener listener) {
+	}
+
+	@Override
+	public void removeEventListener(IEventListener listener) {
+	}
+
+	@Override
+	public String getId() {
+		return fContext.getCommandControlId();
+	}
+
+	@Override
+	public ICommandControlDMContext getContext() {
+		return fContext;
+	}
+
+	@Override
+	public boolean isActive() {
+		return true;
+	}
+
+	@Override
+	public CommandFactory getCommandFactory() {
+		return fCommandFactory;
+	}
+}
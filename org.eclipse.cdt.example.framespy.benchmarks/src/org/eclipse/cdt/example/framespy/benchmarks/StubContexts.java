@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import java.math.BigInteger;
+
+import org.eclipse.cdt.core.IAddress;
+import org.eclipse.cdt.dsf.datamodel.AbstractDMContext;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IExecutionDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.StateChangeReason;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMData;
+import org.eclipse.cdt.dsf.debug.service.IStack.IVariableDMContext;
+import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
+import org.eclipse.cdt.utils.Addr64;
+
+/**
+ * Minimal data model objects used by the simulated backend.
+ */
+public class StubContexts {
+
+	private StubContexts() {
+	}
+
+	public static class ThreadDMContext extends AbstractDMContext implements IMIExecutionDMContext {
+		private final String fThreadId;
+
+		public ThreadDMContext(String sessionId, String threadId) {
+			super(sessionId, new IDMContext[0]);
+			fThreadId = threadId;
+		}
+
+		@Override
+		public String getThreadId() {
+			return fThreadId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return baseEquals(obj) && ((ThreadDMContext)obj).fThreadId.equals(fThreadId);
+		}
+
+		@Override
+		public int hashCode() {
+			return baseHashCode() ^ fThreadId.hashCode();
+		}
+	}
+
+	public static class FrameDMContext extends AbstractDMContext implements IFrameDMContext {
+		private final int fLevel;
+
+		public FrameDMContext(IExecutionDMContext execDmc, int level) {
+			super(execDmc.getSessionId(), new IDMContext[] { execDmc });
+			fLevel = level;
+		}
+
+		@Override
+		public int getLevel() {
+			return fLevel;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return baseEquals(obj) && ((FrameDMContext)obj).fLevel == fLevel;
+		}
+
+		@Override
+		public int hashCode() {
+			return baseHashCode() ^ fLevel;
+		}
+	}
+
+	public static class VariableDMContext extends AbstractDMContext implements IVariableDMContext {
+		private final int fIndex;
+
+		public VariableDMContext(IFrameDMContext frameDmc, int index) {
+			super(frameDmc.getSessionId(), new IDMContext[] { frameDmc });
+			fIndex = index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return baseEquals(obj) && ((VariableDMContext)obj).fIndex == fIndex;
+		}
+
+		@Override
+		public int hashCode() {
+			return baseHashCode() ^ fIndex;
+		}
+	}
+
+	public static class FrameData implements IFrameDMData {
+		private final int fLevel;
+		private final IAddress fAddress;
+
+		public FrameData(int level) {
+			fLevel = level;
+			fAddress = new Addr64(BigInteger.valueOf(0x400000L + 0x40L * level));
+		}
+
+		@Override
+		public IAddress getAddress() {
+			return fAddress;
+		}
+
+		@Override
+		public String getFile() {
+			return "benchmark.c";
+		}
+
+		@Override
+		public String getFunction() {
+			return fLevel == 0 ? "main" : "function" + fLevel;
+		}
+
+		@Override
+		public int getLine() {
+			return 100 + fLevel;
+		}
+
+		@Override
+		public int getColumn() {
+			return 0;
+		}
+
+		@Override
+		public String getModule() {
+			return "benchmark";
+		}
+	}
+
+	public static class SuspendedEvent implements ISuspendedDMEvent {
+		private final IExecutionDMContext fContext;
+
+		public SuspendedEvent(IExecutionDMContext context) {
+			fContext = context;
+		}
+
+		@Override
+		public IExecutionDMContext getDMContext() {
+			return fContext;
+		}
+
+		@Override
+		public StateChangeReason getReason() {
+			return StateChangeReason.STEP;
+		}
+	}
+}
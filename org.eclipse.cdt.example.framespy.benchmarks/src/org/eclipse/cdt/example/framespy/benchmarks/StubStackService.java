@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IExecutionDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack;
+import org.eclipse.cdt.dsf.service.AbstractDsfService;
+import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.example.framespy.Activator;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A stack service answering from a simulated target, with a configurable
+ * stack depth, number of arguments per frame and reply latency.
+ */
+public class StubStackService extends AbstractDsfService implements IStack {
+
+	private final SimulatedBackend fBackend;
+
+	public StubStackService(DsfSession session, SimulatedBackend backend) {
+		super(session);
+		fBackend = backend;
+	}
+
+	@Override
+	protected BundleContext getBundleContext() {
+		// Never registered with OSGi
+		return null;
+	}
+
+	@Override
+	public void getFrames(IDMContext execContext, final DataRequestMonitor<IFrameDMContext[]> rm) {
+		final IExecutionDMContext execDmc = DMContexts.getAncestorOfType(execContext, IExecutionDMContext.class);
+		fBackend.reply(new Runnable() {
+			@Override
+			public void run() {
+				IFrameDMContext[] frames = new IFrameDMContext[fBackend.getStackDepth()];
+				for (int i = 0; i < frames.length; i++) {
+					frames[i] = new StubContexts.FrameDMContext(execDmc, i);
+				}
+				rm.done(frames);
+			}
+		});
+	}
+
+	@Override
+	public void getTopFrame(IDMContext execContext, DataRequestMonitor<IFrameDMContext> rm) {
+		// Like the MI implementation, creating the top frame context needs no target access
+		IExecutionDMContext execDmc = DMContexts.getAncestorOfType(execContext, IExecutionDMContext.class);
+		rm.done(new StubContexts.FrameDMContext(execDmc, 0));
+	}
+
+	@Override
+	public void getFrameData(final IFrameDMContext frameDmc, final DataRequestMonitor<IFrameDMData> rm) {
+		fBackend.reply(new Runnable() {
+			@Override
+			public void run() {
+				rm.done(new StubContexts.FrameData(frameDmc.getLevel()));
+			}
+		});
+	}
+
+	@Override
+	public void getArguments(final IFrameDMContext frameDmc, final DataRequestMonitor<IVariableDMContext[]> rm) {
+		fBackend.reply(new Runnable() {
+			@Override
+			public void run() {
+				IVariableDMContext[] args = new IVariableDMContext[fBackend.getArgumentCount()];
+				for (int i = 0; i < args.length; i++) {
+					args[i] = new StubContexts.VariableDMContext(frameDmc, i);
+				}
+				rm.done(args);
+			}
+		});
+	}
+
+	@Override
+	public void getVariableData(IVariableDMContext variableDmc, DataRequestMonitor<IVariableDMData> rm) {
+		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.NOT_SUPPORTED,
+				"Not supported by the simulated backend", null));
+	}
+
+	@Override
+	public void getLocals(IFrameDMContext frameDmc, DataRequestMonitor<IVariableDMContext[]> rm) {
+		rm.done(new IVariableDMContext[0]);
+	}
+
+	@Override
+	public void getStackDepth(IDMContext dmc, int maxDepth, DataRequestMonitor<Integer> rm) {
+		int depth = fBackend.getStackDepth();
+		rm.done(maxDepth > 0 ? Math.min(depth, maxDepth) : depth);
+	}
+
+	// Kept for older versions of IDMService
+	public void getModelData(IDMContext dmc, DataRequestMonitor<?> rm) {
+		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.NOT_SUPPORTED,
+				"Not supported by the simulated backend", null));
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy.benchmarks;
+
+import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.example.framespy.FrameSpyService;
+
+/**
+ * A FrameSpyService using the stub services directly instead
+ * of looking them up in the OSGi service registry.
+ */
+public class StubbedFrameSpyService extends FrameSpyService {
+
+	private final Object[] fServices;
+
+	public StubbedFrameSpyService(DsfSession session, Object... services) {
+		super(session);
+		fServices = services;
+	}
+
+	@Override
+	protected <V> V getService(Class<V> serviceClass) {
+		for (Object service : fServices) {
+			if (serviceClass.isInstance(service)) {
+				return serviceClass.cast(service);
+			}
+		}
+		return null;
+	}
+}
@@ -9,6 +9,7 @@
 
 package org.eclipse.cdt.example.framespy;
 
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
@@ -31,10 +32,16 @@ public class Activator extends AbstractUIPlugin {
 		super.start(context);
 		plugin = this;
 		bundleContext = context;
+		FrameSpyPreferences.initialize();
+		FrameSpyEngine.initialize();
 		FrameSpyServiceManager.initialize();
+		FrameSpyServiceCache.initialize();
 	}
 
 	public void stop(BundleContext context) throws Exception {
+		FrameSpyEngine.dispose();
+		FrameSpyServiceCache.dispose();
+		FrameSpyPreferences.dispose();
 		plugin = null;
 		super.stop(context);
 		bundleContext = null;
@@ -52,4 +59,13 @@ public class Activator extends AbstractUIPlugin {
         return bundleContext;
     }
 
+	/**
+	 * Logs the specified status in the error log
+	 */
+	public static void log(IStatus status) {
+		if (plugin != null) {
+			plugin.getLog().log(status);
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.jface.dialogs.InputDialog;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.window.Window;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+public class AddWatchHandler extends AbstractHandler {
+	
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {	
+		FrameSpyView part = (FrameSpyView) HandlerUtil.getActivePartChecked(event);
+		InputDialog dialog = new InputDialog(HandlerUtil.getActiveShellChecked(event),
+				"Add Watched Expression",
+				"Expression to record when it changes, each time a frame is logged",
+				"", null);
+		if (dialog.open() != Window.OK || dialog.getValue().trim().isEmpty()) {
+			return null;
+		}
+		if (!part.addWatchExpression(dialog.getValue().trim())) {
+			MessageDialog.openInformation(HandlerUtil.getActiveShellChecked(event),
+					"Add Watched Expression", "Select a debug session in the Debug view first.");
+		}
+		return null;
+	}
+}
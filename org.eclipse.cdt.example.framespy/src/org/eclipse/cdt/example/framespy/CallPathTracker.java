@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.cdt.core.IAddress;
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfExecutor;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMData;
+import org.eclipse.cdt.dsf.debug.service.IStack2;
+import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
+
+/**
+ * Computes the call path of a thread, up to a maximum depth, from one
+ * suspend to the next.
+ *
+ * Frames are fetched from the top of the stack, a few at a time.  As
+ * soon as one of them is found at the same distance from the bottom of
+ * the stack, and at the same address, as during the previous suspend of
+ * the thread, the frames below it are assumed unchanged and their data
+ * is reused.  After a step, typically only the top frame is fetched.
+ *
+ * GDB only counts the frames up to the maximum depth, plus one.  When the
+ * stack is deeper, the distance from the bottom is unknown, so the top
+ * frames are all fetched again, which is still bounded by the maximum depth.
+ *
+ * Must only be used on the DSF executor.
+ */
+public class CallPathTracker {
+
+	public static final int DEFAULT_MAX_DEPTH = 16;
+
+	// Number of frames asked to the stack service at once
+	private static final int FRAMES_PER_REQUEST = 4;
+	private static final String SEPARATOR = ">"; //$NON-NLS-1$
+	private static final String TRUNCATED = "..."; //$NON-NLS-1$
+
+	/**
+	 * The top frames of a thread, as seen when it last suspended.
+	 */
+	private static class ThreadStack {
+		final int fDepth;
+		// Indexed by frame level, only the top ones
+		final IFrameDMData[] fFrames;
+
+		ThreadStack(int depth, IFrameDMData[] frames) {
+			fDepth = depth;
+			fFrames = frames;
+		}
+
+		/**
+		 * Returns the frame at the specified distance from the bottom of the stack, if known.
+		 */
+		IFrameDMData getFrameFromBottom(int index) {
+			int level = fDepth - 1 - index;
+			return level >= 0 && level < fFrames.length ? fFrames[level] : null;
+		}
+	}
+
+	private final DsfExecutor fExecutor;
+	private final Map<IMIExecutionDMContext, ThreadStack> fStacks = new HashMap<>();
+	private long fFetchedFrames;
+	private long fReusedFrames;
+
+	public CallPathTracker(DsfExecutor executor) {
+		fExecutor = executor;
+	}
+
+	/**
+	 * Returns the call path of the specified suspended thread, from its
+	 * outermost frame to its top frame, such as "main>parse>lex".  When
+	 * the stack is deeper than maxDepth, only the top maxDepth frames are
+	 * given, after "...".
+	 */
+	public void getCallPath(final IStack stack, final IMIExecutionDMContext execDmc, final int maxDepth, final DataRequestMonitor<String> rm) {
+		// Don't let GDB unwind the whole stack just to count it: one more
+		// frame than needed tells whether the call path is truncated
+		stack.getStackDepth(execDmc, maxDepth + 1, new DataRequestMonitor<Integer>(fExecutor, rm) {
+			@Override
+			protected void handleSuccess() {
+				final int depth = getData();
+				final boolean truncated = depth > maxDepth;
+				final IFrameDMData[] frames = new IFrameDMData[Math.min(depth, maxDepth)];
+				if (truncated) {
+					// The distance of the frames from the bottom of the stack
+					// is unknown, so none can be matched with the previous stack
+					fStacks.remove(execDmc);
+				}
+				fetchFrames(stack, execDmc, depth, frames, 0, false, new DataRequestMonitor<IFrameDMData[]>(fExecutor, rm) {
+					@Override
+					protected void handleSuccess() {
+						if (!truncated) {
+							fStacks.put(execDmc, new ThreadStack(depth, frames));
+						}
+						rm.done(formatCallPath(frames, truncated));
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Fills the frames starting at the specified level, either from the previous
+	 * stack of the thread once it matches, or by asking the stack service.
+	 */
+	private void fetchFrames(final IStack stack, final IMIExecutionDMContext execDmc, final int depth,
+			final IFrameDMData[] frames, int level, boolean matched, final DataRequestMonitor<IFrameDMData[]> rm) {
+		final ThreadStack previous = fStacks.get(execDmc);
+		if (matched && previous != null) {
+			while (level < frames.length && frames[level] == null) {
+				IFrameDMData frame = previous.getFrameFromBottom(depth - 1 - level);
+				if (frame == null) {
+					break;
+				}
+				frames[level++] = frame;
+				fReusedFrames++;
+			}
+		}
+		if (level >= frames.length) {
+			rm.done(frames);
+			return;
+		}
+
+		final int startLevel = level;
+		final int endLevel = Math.min(level + FRAMES_PER_REQUEST, frames.length) - 1;
+		final boolean wasMatched = matched;
+		getFrameContexts(stack, execDmc, startLevel, endLevel, new DataRequestMonitor<IFrameDMContext[]>(fExecutor, rm) {
+			@Override
+			protected void handleSuccess() {
+				final IFrameDMContext[] contexts = getData();
+				final CountingRequestMonitor crm = new CountingRequestMonitor(fExecutor, rm) {
+					@Override
+					protected void handleSuccess() {
+						boolean nowMatched = wasMatched;
+						for (int i = startLevel; i <= endLevel; i++) {
+							fFetchedFrames++;
+							if (!nowMatched && previous != null) {
+								nowMatched = isSameFrame(frames[i], previous.getFrameFromBottom(depth - 1 - i));
+							}
+						}
+						fetchFrames(stack, execDmc, depth, frames, endLevel + 1, nowMatched, rm);
+					}
+				};
+				crm.setDoneCount(endLevel - startLevel + 1);
+
+				for (int i = startLevel; i <= endLevel; i++) {
+					final int frameLevel = i;
+					stack.getFrameData(contexts[i - startLevel], new DataRequestMonitor<IFrameDMData>(fExecutor, crm) {
+						@Override
+						protected void handleSuccess() {
+							frames[frameLevel] = getData();
+							crm.done();
+						}
+					});
+				}
+			}
+		});
+	}
+
+	private void getFrameContexts(IStack stack, IMIExecutionDMContext execDmc, final int startLevel, final int endLevel,
+			final DataRequestMonitor<IFrameDMContext[]> rm) {
+		if (stack instanceof IStack2) {
+			((IStack2)stack).getFrames(execDmc, startLevel, endLevel, rm);
+			return;
+		}
+		stack.getFrames(execDmc, new DataRequestMonitor<IFrameDMContext[]>(fExecutor, rm) {
+			@Override
+			protected void handleSuccess() {
+				rm.done(Arrays.copyOfRange(getData(), startLevel, endLevel + 1));
+			}
+		});
+	}
+
+	private static boolean isSameFrame(IFrameDMData frame, IFrameDMData previous) {
+		if (frame == null || previous == null) {
+			return false;
+		}
+		IAddress address = frame.getAddress();
+		return address != null && address.equals(previous.getAddress())
+				&& equals(frame.getFunction(), previous.getFunction());
+	}
+
+	private static boolean equals(String str1, String str2) {
+		return str1 == null ? str2 == null : str1.equals(str2);
+	}
+
+	private static String formatCallPath(IFrameDMData[] frames, boolean truncated) {
+		StringBuilder path = new StringBuilder();
+		if (truncated) {
+			path.append(TRUNCATED);
+		}
+		for (int level = frames.length - 1; level >= 0; level--) {
+			if (path.length() > 0) {
+				path.append(SEPARATOR);
+			}
+			String function = frames[level].getFunction();
+			if (function == null || function.isEmpty()) {
+				IAddress address = frames[level].getAddress();
+				function = address == null ? "??" : address.toHexAddressString(); //$NON-NLS-1$
+			}
+			path.append(function);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Forgets the stacks of the threads of the specified context, which exited.
+	 */
+	public void removeContexts(IDMContext context) {
+		Iterator<IMIExecutionDMContext> it = fStacks.keySet().iterator();
+		while (it.hasNext()) {
+			if (DMContexts.isAncestorOf(it.next(), context)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames asked to the stack service so far.
+	 */
+	public long getFetchedFrameCount() {
+		return fFetchedFrames;
+	}
+
+	/**
+	 * Returns the number of frames reused from the previous suspend of their thread.
+	 */
+	public long getReusedFrameCount() {
+		return fReusedFrames;
+	}
+}
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams {@link FrameRecord}s to a file in the Chrome trace event JSON
+ * format, which can be opened in chrome://tracing, Perfetto or Trace
+ * Compass.
+ *
+ * Each session is shown as a process and each thread as a thread of
+ * that process.  A frame record becomes an instant event named after its
+ * function, and a suppressed summary an instant event giving the number
+ * of suspends that were not logged.  Timestamps are the absolute times of
+ * {@link FrameSpyClock}, in microseconds since the epoch with nanosecond
+ * decimals, so that the trace can be lined up with those of other tools.
+ *
+ * Records are written by a background thread, see {@link QueuedRecordWriter}.
+ * The file uses the JSON array format, which trace viewers still accept
+ * if it was not closed properly.
+ */
+public class ChromeTraceExporter extends QueuedRecordWriter {
+
+	private static final long NANOS_PER_MICRO = 1000;
+
+	// Only used by the writer thread
+	private final Writer fWriter;
+	private final Map<String, Integer> fProcessIds = new HashMap<>();
+	private final Map<String, Integer> fThreadIds = new HashMap<>();
+	// Thread ids given in each process, see getThreadKey()
+	private final Set<Long> fUsedThreadIds = new HashSet<>();
+	private final StringBuilder fLine = new StringBuilder();
+	private boolean fFirstEvent = true;
+
+	/**
+	 * Creates a new trace file, replacing any existing file at that location.
+	 */
+	public ChromeTraceExporter(Path file) throws IOException {
+		this(file, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public ChromeTraceExporter(Path file, int queueCapacity) throws IOException {
+		super("Frame Spy trace exporter", queueCapacity); //$NON-NLS-1$
+		fWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+		fWriter.write("[\n"); //$NON-NLS-1$
+		start();
+	}
+
+	@Override
+	protected void writeIdle() throws IOException {
+		// Nothing more for now, let the file be readable as is
+		fWriter.flush();
+	}
+
+	@Override
+	protected void writeEnd() throws IOException {
+		fWriter.write("\n]\n"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void closeOutput() throws IOException {
+		fWriter.close();
+	}
+
+	@Override
+	protected void writeRecord(FrameRecord record) throws IOException {
+		int pid = getProcessId(record.getSessionId());
+		int tid = getThreadId(pid, record.getSessionId(), record.getThreadId());
+
+		String name = record.isSuppressedSummary() ? "suppressed" : record.getFunction(); //$NON-NLS-1$
+		StringBuilder line = startEvent(name == null ? "??" : name, "i", pid, tid); //$NON-NLS-1$ //$NON-NLS-2$
+		line.append(",\"ts\":"); //$NON-NLS-1$
+		appendMicros(line, record.getTimestamp());
+		line.append(",\"s\":\"t\",\"args\":{"); //$NON-NLS-1$
+		if (record.isSuppressedSummary()) {
+			line.append("\"count\":").append(record.getSuppressedCount()); //$NON-NLS-1$
+		} else {
+			appendString(line.append("\"file\":"), record.getFile()); //$NON-NLS-1$
+			line.append(",\"line\":").append(record.getLine()); //$NON-NLS-1$
+			appendString(line.append(",\"address\":"), record.getAddress()); //$NON-NLS-1$
+			if (record.getNumArgs() != FrameRecord.UNKNOWN_NUM_ARGS) {
+				line.append(",\"args\":").append(record.getNumArgs()); //$NON-NLS-1$
+			}
+			if (record.getCallPath() != null) {
+				appendString(line.append(",\"callPath\":"), record.getCallPath()); //$NON-NLS-1$
+			}
+		}
+		line.append("}}"); //$NON-NLS-1$
+		writeEvent(line);
+	}
+
+	private int getProcessId(String sessionId) throws IOException {
+		Integer pid = fProcessIds.get(sessionId);
+		if (pid == null) {
+			pid = fProcessIds.size() + 1;
+			fProcessIds.put(sessionId, pid);
+			writeNameMetadata("process_name", pid, 0, "GDB session " + sessionId); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return pid;
+	}
+
+	private int getThreadId(int pid, String sessionId, String threadId) throws IOException {
+		String key = sessionId + '/' + threadId;
+		Integer tid = fThreadIds.get(key);
+		if (tid == null) {
+			// GDB thread ids are small numbers; keep them when possible
+			tid = parseThreadId(threadId);
+			if (tid <= 0 || !fUsedThreadIds.add(getThreadKey(pid, tid))) {
+				// Negative ids can't clash with GDB ones
+				do {
+					tid = -(fThreadIds.size() + 1);
+				} while (!fUsedThreadIds.add(getThreadKey(pid, tid)));
+			}
+			fThreadIds.put(key, tid);
+			writeNameMetadata("thread_name", pid, tid, "Thread " + threadId); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return tid;
+	}
+
+	private static long getThreadKey(int pid, int tid) {
+		return ((long)pid << 32) | (tid & 0xFFFFFFFFL);
+	}
+
+	private static int parseThreadId(String threadId) {
+		try {
+			return threadId == null ? 0 : Integer.parseInt(threadId);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private void writeNameMetadata(String name, int pid, int tid, String value) throws IOException {
+		StringBuilder line = startEvent(name, "M", pid, tid); //$NON-NLS-1$
+		appendString(line.append(",\"args\":{\"name\":"), value).append("}}"); //$NON-NLS-1$ //$NON-NLS-2$
+		writeEvent(line);
+	}
+
+	private StringBuilder startEvent(String name, String phase, int pid, int tid) {
+		fLine.setLength(0);
+		appendString(fLine.append("{\"name\":"), name); //$NON-NLS-1$
+		fLine.append(",\"ph\":\"").append(phase).append('"'); //$NON-NLS-1$
+		fLine.append(",\"pid\":").append(pid); //$NON-NLS-1$
+		fLine.append(",\"tid\":").append(tid); //$NON-NLS-1$
+		return fLine;
+	}
+
+	private void writeEvent(StringBuilder line) throws IOException {
+		if (!fFirstEvent) {
+			fWriter.write(",\n"); //$NON-NLS-1$
+		}
+		fFirstEvent = false;
+		fWriter.append(line);
+	}
+
+	/**
+	 * Appends a duration in nanoseconds as microseconds, without going through a double.
+	 */
+	private static void appendMicros(StringBuilder line, long nanos) {
+		if (nanos < 0) {
+			line.append('-');
+			nanos = -nanos;
+		}
+		line.append(nanos / NANOS_PER_MICRO).append('.');
+		long fraction = nanos % NANOS_PER_MICRO;
+		if (fraction < 100) {
+			line.append('0');
+		}
+		if (fraction < 10) {
+			line.append('0');
+		}
+		line.append(fraction);
+	}
+
+	private static StringBuilder appendString(StringBuilder line, String str) {
+		if (str == null) {
+			return line.append("null"); //$NON-NLS-1$
+		}
+		line.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"':
+				line.append("\\\""); //$NON-NLS-1$
+				break;
+			case '\\':
+				line.append("\\\\"); //$NON-NLS-1$
+				break;
+			case '\n':
+				line.append("\\n"); //$NON-NLS-1$
+				break;
+			case '\r':
+				line.append("\\r"); //$NON-NLS-1$
+				break;
+			case '\t':
+				line.append("\\t"); //$NON-NLS-1$
+				break;
+			default:
+				if (c < 0x20) {
+					line.append(String.format("\\u%04x", (int)c)); //$NON-NLS-1$
+				} else {
+					line.append(c);
+				}
+				break;
+			}
+		}
+		return line.append('"');
+	}
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
+import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IBreakpoints.IBreakpointsTargetDMContext;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandControlService;
+import org.eclipse.cdt.dsf.debug.service.command.IEventListener;
+import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIGDBSet;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIBreakInsertInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIBreakpoint;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIConsoleStreamOutput;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOOBRecord;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOutput;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Logs the frames of chosen locations without ever suspending the
+ * target for the Frame Spy.  A GDB dprintf is inserted at each location;
+ * every time it is hit, GDB prints the thread and the program counter to
+ * its console and continues on its own, without any MI command from us.
+ * The console output is parsed as it arrives and each line becomes a
+ * {@link FrameRecord}, given to the {@link FrameSpyEngine} listeners.
+ *
+ * The function, file and line of a record are those GDB resolved for the
+ * location when the dprintf was inserted.  The number of arguments is
+ * taken from those the {@link FrameSpyService} already found for the
+ * function at that address, and is otherwise unknown, see
+ * {@link FrameRecord#UNKNOWN_NUM_ARGS}.
+ *
+ * Must only be used on the DSF executor.
+ */
+public class DprintfSpy implements IEventListener {
+
+	// Starts and ends what our dprintfs print.  Newlines are not used since
+	// they would need escaping on the MI command line; the parser splits on
+	// these instead, so it works whether or not GDB flushes after each hit.
+	private static final String MARKER = "@fspy "; //$NON-NLS-1$
+	private static final char END = ';';
+	// Partial output longer than this cannot be ours
+	private static final int MAX_PENDING = 256;
+
+	/**
+	 * A location where a dprintf was inserted.
+	 */
+	private static class Location {
+		final IBreakpointsTargetDMContext fBreakpointsTarget;
+		final String fBreakpointNumber;
+		final String fFunction;
+		final String fFile;
+		final int fLine;
+
+		Location(IBreakpointsTargetDMContext breakpointsTarget, String breakpointNumber, String function, String file, int line) {
+			fBreakpointsTarget = breakpointsTarget;
+			fBreakpointNumber = breakpointNumber;
+			fFunction = function;
+			fFile = file;
+			fLine = line;
+		}
+	}
+
+	private final FrameSpyService fService;
+	// By the id printed by the dprintf
+	private final Map<Integer, Location> fLocations = new HashMap<>();
+	private final StringBuilder fPending = new StringBuilder();
+	private int fLastId;
+	private boolean fListening;
+	private long fHitCount;
+	private long fMalformedCount;
+
+	public DprintfSpy(FrameSpyService service) {
+		fService = service;
+	}
+
+	/**
+	 * Inserts a dprintf at the specified location, such as "foo.c:42" or "main".
+	 * @param rm Given the id of the new spy location
+	 */
+	public void addLocation(IDMContext context, final String location, final DataRequestMonitor<Integer> rm) {
+		final IMICommandControl control = fService.getService(IMICommandControl.class);
+		if (control == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR,
+					"Cannot find command control service", null));
+			return;
+		}
+		final IBreakpointsTargetDMContext bpTarget = DMContexts.getAncestorOfType(context, IBreakpointsTargetDMContext.class);
+		if (bpTarget == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INVALID_HANDLE,
+					"Context does not support breakpoints", null));
+			return;
+		}
+
+		if (!fListening) {
+			control.addEventListener(this);
+			// The default, but a "call" or "agent" style would not print to the console
+			control.queueCommand(
+					new MIGDBSet(control.getContext(), new String[] { "dprintf-style", "gdb" }), //$NON-NLS-1$ //$NON-NLS-2$
+					new DataRequestMonitor<MIInfo>(fService.getExecutor(), null));
+			fListening = true;
+		}
+
+		// The global thread number is the one MI uses for thread ids
+		final int id = ++fLastId;
+		String printf = '"' + MARKER + id + " %d %#lx" + END + "\", $_gthread, $pc"; //$NON-NLS-1$ //$NON-NLS-2$
+		control.queueCommand(
+				control.getCommandFactory().createMIDPrintfInsert(bpTarget, false, null, 0, "0", false, location, printf), //$NON-NLS-1$
+				new DataRequestMonitor<MIBreakInsertInfo>(fService.getExecutor(), rm) {
+					@Override
+					protected void handleSuccess() {
+						MIBreakpoint[] breakpoints = getData().getMIBreakpoints();
+						if (breakpoints == null || breakpoints.length == 0) {
+							rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.REQUEST_FAILED,
+									"No dprintf inserted at " + location, null));
+							return;
+						}
+						MIBreakpoint breakpoint = breakpoints[0];
+						String function = breakpoint.getFunction();
+						fLocations.put(id, new Location(
+								bpTarget,
+								String.valueOf(breakpoint.getNumber()),
+								function == null || function.isEmpty() ? location : function,
+								breakpoint.getFile(),
+								breakpoint.getLine()));
+						rm.done(id);
+					}
+				});
+	}
+
+	/**
+	 * Deletes all the dprintfs inserted by the spy, with one command per
+	 * breakpoints target.
+	 */
+	public void removeLocations(RequestMonitor rm) {
+		IMICommandControl control = fService.getService(IMICommandControl.class);
+		List<Location> locations = new ArrayList<>(fLocations.values());
+		fLocations.clear();
+		if (control == null) {
+			rm.done();
+			return;
+		}
+		if (fListening) {
+			control.removeEventListener(this);
+			fListening = false;
+			fPending.setLength(0);
+		}
+
+		Map<IBreakpointsTargetDMContext, List<String>> numbersByTarget = new LinkedHashMap<>();
+		for (Location location : locations) {
+			List<String> numbers = numbersByTarget.get(location.fBreakpointsTarget);
+			if (numbers == null) {
+				numbers = new ArrayList<>();
+				numbersByTarget.put(location.fBreakpointsTarget, numbers);
+			}
+			numbers.add(location.fBreakpointNumber);
+		}
+
+		CountingRequestMonitor crm = new CountingRequestMonitor(fService.getExecutor(), rm);
+		crm.setDoneCount(numbersByTarget.size());
+		for (Map.Entry<IBreakpointsTargetDMContext, List<String>> entry : numbersByTarget.entrySet()) {
+			List<String> numbers = entry.getValue();
+			control.queueCommand(
+					control.getCommandFactory().createMIBreakDelete(entry.getKey(), numbers.toArray(new String[numbers.size()])),
+					new DataRequestMonitor<MIInfo>(fService.getExecutor(), crm));
+		}
+	}
+
+	/**
+	 * Stops parsing the output, without deleting the dprintfs.
+	 * Used when the session is shutting down.
+	 */
+	public void dispose() {
+		if (fListening) {
+			ICommandControlService control = fService.getService(ICommandControlService.class);
+			if (control != null) {
+				control.removeEventListener(this);
+			}
+			fListening = false;
+		}
+		fLocations.clear();
+	}
+
+	public int getLocationCount() {
+		return fLocations.size();
+	}
+
+	/**
+	 * Returns the number of dprintf hits turned into records.
+	 */
+	public long getHitCount() {
+		return fHitCount;
+	}
+
+	/**
+	 * Returns the number of dprintf outputs that could not be parsed.
+	 */
+	public long getMalformedCount() {
+		return fMalformedCount;
+	}
+
+	@Override
+	public void eventReceived(Object output) {
+		if (!(output instanceof MIOutput)) {
+			return;
+		}
+		for (MIOOBRecord record : ((MIOutput)output).getMIOOBRecords()) {
+			if (record instanceof MIConsoleStreamOutput) {
+				String text = ((MIConsoleStreamOutput)record).getString();
+				// Don't copy the output that has nothing to do with us
+				if (text != null && (fPending.length() > 0 || text.indexOf(MARKER.charAt(0)) >= 0)) {
+					fPending.append(text);
+					parsePending();
+				}
+			}
+		}
+	}
+
+	private void parsePending() {
+		int start = fPending.indexOf(MARKER);
+		while (start >= 0) {
+			int end = fPending.indexOf(String.valueOf(END), start);
+			if (end < 0) {
+				break;
+			}
+			parseHit(fPending.substring(start + MARKER.length(), end));
+			start = fPending.indexOf(MARKER, end + 1);
+		}
+
+		// Keep the start of a hit whose end did not arrive yet
+		if (start < 0) {
+			// The output may end with the beginning of a marker, and
+			// otherwise there is nothing to keep
+			start = fPending.length() - getMarkerPrefixLength();
+		}
+		fPending.delete(0, start);
+		if (fPending.length() > MAX_PENDING) {
+			fPending.setLength(0);
+			fMalformedCount++;
+		}
+	}
+
+	/**
+	 * Returns the length of the longest end of the pending output that is
+	 * the beginning of a marker, 0 if there is none.
+	 */
+	private int getMarkerPrefixLength() {
+		int length = Math.min(fPending.length(), MARKER.length() - 1);
+		for (; length > 0; length--) {
+			int offset = fPending.length() - length;
+			boolean matches = true;
+			for (int i = 0; i < length && matches; i++) {
+				matches = fPending.charAt(offset + i) == MARKER.charAt(i);
+			}
+			if (matches) {
+				break;
+			}
+		}
+		return length;
+	}
+
+	private void parseHit(String hit) {
+		// "<id> <thread> <pc>"
+		String[] fields = hit.trim().split(" "); //$NON-NLS-1$
+		Location location = null;
+		if (fields.length == 3) {
+			try {
+				location = fLocations.get(Integer.valueOf(fields[0]));
+			} catch (NumberFormatException e) {
+				// Not printed by one of our dprintfs
+			}
+		}
+		if (location == null) {
+			fMalformedCount++;
+			return;
+		}
+
+		fHitCount++;
+		Integer numArgs = fService.getCachedNumberArguments(location.fFunction, fields[2]);
+		FrameSpyEngine.recordProduced(new FrameRecord(
+				FrameSpyClock.now(),
+				location.fFunction,
+				location.fFile,
+				location.fLine,
+				fields[2],
+				numArgs == null ? FrameRecord.UNKNOWN_NUM_ARGS : numArgs,
+				fService.getSession().getId(),
+				fields[1]));
+	}
+}
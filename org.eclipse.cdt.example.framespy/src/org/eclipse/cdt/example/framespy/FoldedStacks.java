@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts identical stacks, in the "folded" format used by flame graph
+ * tools: one line per distinct stack, with its functions from the
+ * outermost to the innermost separated by semicolons, then a space and
+ * the number of times it was seen, e.g. "main;parse;lex 42".
+ *
+ * Thread-safe.
+ */
+public class FoldedStacks {
+
+	private static final String UNKNOWN_FUNCTION = "??"; //$NON-NLS-1$
+
+	private final Map<String, long[]> fCounts = new HashMap<>();
+	private long fSampleCount;
+
+	/**
+	 * Adds one occurrence of the specified stack.
+	 * @param functions The functions of the stack, innermost first, as GDB lists frames
+	 */
+	public void add(String[] functions) {
+		StringBuilder stack = new StringBuilder();
+		for (int i = functions.length - 1; i >= 0; i--) {
+			String function = functions[i];
+			if (function == null || function.isEmpty()) {
+				function = UNKNOWN_FUNCTION;
+			}
+			if (stack.length() > 0) {
+				stack.append(';');
+			}
+			// Neither separator may appear in a function name
+			stack.append(function.replace(';', ':').replace(' ', '_'));
+		}
+
+		synchronized (this) {
+			long[] count = fCounts.get(stack.toString());
+			if (count == null) {
+				fCounts.put(stack.toString(), new long[] { 1 });
+			} else {
+				count[0]++;
+			}
+			fSampleCount++;
+		}
+	}
+
+	public synchronized long getSampleCount() {
+		return fSampleCount;
+	}
+
+	public synchronized void write(Writer writer) throws IOException {
+		for (Map.Entry<String, long[]> entry : fCounts.entrySet()) {
+			writer.write(entry.getKey());
+			writer.write(' ');
+			writer.write(Long.toString(entry.getValue()[0]));
+			writer.write('\n');
+		}
+	}
+
+	public synchronized void clear() {
+		fCounts.clear();
+		fSampleCount = 0;
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfExecutor;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMData;
+
+/**
+ * Cache of frame data, meant to be valid for one suspend period.
+ * Concurrent requests for a frame that is already being fetched are
+ * coalesced into the single request sent to the backend.
+ *
+ * Must only be accessed on the DSF executor.
+ */
+public abstract class FrameDataCache {
+
+	private final DsfExecutor fExecutor;
+	private final Map<IFrameDMContext, IFrameDMData> fFrameData = new HashMap<>();
+	// Requests waiting for a frame whose data is already being fetched
+	private final Map<IFrameDMContext, List<DataRequestMonitor<IFrameDMData>>> fPendingRequests = new HashMap<>();
+	// Incremented on every invalidation so that a reply that was requested
+	// before the target resumed is never put in the cache
+	private int fGeneration;
+
+	private final AtomicLong fHits = new AtomicLong();
+	private final AtomicLong fMisses = new AtomicLong();
+
+	public FrameDataCache(DsfExecutor executor) {
+		fExecutor = executor;
+	}
+
+	/**
+	 * Fetches the data of a frame from the backend.
+	 */
+	protected abstract void fetchFrameData(IFrameDMContext frameDmc, DataRequestMonitor<IFrameDMData> rm);
+
+	public void getFrameData(final IFrameDMContext frameDmc, DataRequestMonitor<IFrameDMData> rm) {
+		IFrameDMData cachedData = fFrameData.get(frameDmc);
+		if (cachedData != null) {
+			fHits.incrementAndGet();
+			rm.done(cachedData);
+			return;
+		}
+
+		// Coalesce with a request for the same frame that is already in progress
+		List<DataRequestMonitor<IFrameDMData>> waiting = fPendingRequests.get(frameDmc);
+		if (waiting != null) {
+			fHits.incrementAndGet();
+			waiting.add(rm);
+			return;
+		}
+		fMisses.incrementAndGet();
+
+		final List<DataRequestMonitor<IFrameDMData>> requests = new ArrayList<>();
+		requests.add(rm);
+		fPendingRequests.put(frameDmc, requests);
+		final int generation = fGeneration;
+
+		fetchFrameData(frameDmc, new DataRequestMonitor<IFrameDMData>(fExecutor, null) {
+			@Override
+			protected void handleCompleted() {
+				// The list may have been dropped by an invalidation, in which
+				// case a newer request may be registered for the same frame
+				if (fPendingRequests.get(frameDmc) == requests) {
+					fPendingRequests.remove(frameDmc);
+				}
+
+				if (!isSuccess()) {
+					for (DataRequestMonitor<IFrameDMData> request : requests) {
+						request.done(getStatus());
+					}
+					return;
+				}
+
+				IFrameDMData data = getData();
+				if (generation == fGeneration) {
+					fFrameData.put(frameDmc, data);
+				}
+				for (DataRequestMonitor<IFrameDMData> request : requests) {
+					request.done(data);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the data of a frame obtained by other means than
+	 * {@link #fetchFrameData}, such as for several frames at once.
+	 * The data must be valid for the current suspend.
+	 */
+	public void put(IFrameDMContext frameDmc, IFrameDMData data) {
+		fFrameData.put(frameDmc, data);
+	}
+
+	/**
+	 * Removes the data of every frame belonging to the specified context,
+	 * or of all frames if the context is null.
+	 */
+	public void invalidate(IDMContext context) {
+		fGeneration++;
+		invalidate(fFrameData.keySet().iterator(), context);
+		invalidate(fPendingRequests.keySet().iterator(), context);
+	}
+
+	private static void invalidate(Iterator<IFrameDMContext> frames, IDMContext context) {
+		while (frames.hasNext()) {
+			IFrameDMContext frame = frames.next();
+			if (context == null || DMContexts.isAncestorOf(frame, context)) {
+				frames.remove();
+			}
+		}
+	}
+
+	public long getHits() {
+		return fHits.get();
+	}
+
+	public long getMisses() {
+		return fMisses.get();
+	}
+}
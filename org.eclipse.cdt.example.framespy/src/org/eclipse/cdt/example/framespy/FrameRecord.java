@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * An immutable entry of the Frame Spy log.  Each record describes
+ * the top frame of a thread at the time it suspended, optionally with
+ * the call path leading to it, or summarizes
+ * the suspend events of a thread that were suppressed to limit the
+ * rate of records.
+ */
+public class FrameRecord {
+
+	/**
+	 * The number of arguments of records whose function was not inspected.
+	 */
+	public static final int UNKNOWN_NUM_ARGS = -1;
+
+	// Nanoseconds since the epoch, see FrameSpyClock
+	private final long fTimestamp;
+	private final String fFunction;
+	private final String fFile;
+	private final int fLine;
+	private final String fAddress;
+	private final int fNumArgs;
+	private final String fSessionId;
+	private final String fThreadId;
+	private final long fSuppressedCount;
+	// Functions from the outermost to the top frame, see CallPathTracker
+	private final String fCallPath;
+
+	public FrameRecord(long timestamp, String function, String file, int line, String address,
+			int numArgs, String sessionId, String threadId) {
+		this(timestamp, function, file, line, address, numArgs, sessionId, threadId, null);
+	}
+
+	public FrameRecord(long timestamp, String function, String file, int line, String address,
+			int numArgs, String sessionId, String threadId, String callPath) {
+		this(timestamp, function, file, line, address, numArgs, sessionId, threadId, callPath, 0);
+	}
+
+	private FrameRecord(long timestamp, String function, String file, int line, String address,
+			int numArgs, String sessionId, String threadId, String callPath, long suppressedCount) {
+		fTimestamp = timestamp;
+		fFunction = function;
+		fFile = file;
+		fLine = line;
+		fAddress = address;
+		fNumArgs = numArgs;
+		fSessionId = sessionId;
+		fThreadId = threadId;
+		fCallPath = callPath;
+		fSuppressedCount = suppressedCount;
+	}
+
+	/**
+	 * Creates a record indicating that a number of suspend events
+	 * of a thread were not logged.
+	 */
+	public static FrameRecord createSuppressedSummary(long timestamp, String sessionId, String threadId, long suppressedCount) {
+		return new FrameRecord(timestamp, null, null, 0, null, 0, sessionId, threadId, null, suppressedCount);
+	}
+
+	public boolean isSuppressedSummary() {
+		return fSuppressedCount > 0;
+	}
+
+	public long getSuppressedCount() {
+		return fSuppressedCount;
+	}
+
+	/**
+	 * Returns the time of the record, in nanoseconds since the epoch.
+	 * Use {@link FrameSpyClock#formatTimeOfDay(long)} to display it.
+	 */
+	public long getTimestamp() {
+		return fTimestamp;
+	}
+
+	public String getFunction() {
+		return fFunction;
+	}
+
+	public String getFile() {
+		return fFile;
+	}
+
+	public int getLine() {
+		return fLine;
+	}
+
+	public String getAddress() {
+		return fAddress;
+	}
+
+	/**
+	 * Returns the number of arguments of the function, or
+	 * {@link #UNKNOWN_NUM_ARGS}.
+	 */
+	public int getNumArgs() {
+		return fNumArgs;
+	}
+
+	public String getSessionId() {
+		return fSessionId;
+	}
+
+	public String getThreadId() {
+		return fThreadId;
+	}
+
+	/**
+	 * Returns the call path of the frame, such as "main>parse>lex",
+	 * or null if the spy did not collect call paths.
+	 */
+	public String getCallPath() {
+		return fCallPath;
+	}
+
+	/**
+	 * Returns a rough estimate of the memory used by this record, in bytes.
+	 * Used to bound the size of the log.
+	 */
+	public int getEstimatedSize() {
+		// Object headers and primitive fields, plus two bytes per character of each string
+		return 64 + 2 * (length(fFunction) + length(fFile) + length(fAddress)
+				+ length(fSessionId) + length(fThreadId) + length(fCallPath));
+	}
+
+	/**
+	 * Returns a description such as "thread 42: 3,120 suspends suppressed".
+	 */
+	public String getSuppressedSummaryText() {
+		String thread = fThreadId == null ? "all threads" : "thread " + fThreadId; //$NON-NLS-1$ //$NON-NLS-2$
+		return String.format("%s: %,d suspends suppressed", thread, fSuppressedCount); //$NON-NLS-1$
+	}
+
+	private static int length(String str) {
+		return str == null ? 0 : str.length();
+	}
+
+	@Override
+	public String toString() {
+		if (isSuppressedSummary()) {
+			return "[" + FrameSpyClock.formatTimeOfDay(fTimestamp) + "] " + getSuppressedSummaryText(); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return "[" + FrameSpyClock.formatTimeOfDay(fTimestamp) + "] " + fFunction + ":" + fLine + " (" + fNumArgs + " args)"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Collects {@link FrameRecord}s produced on any thread (typically
+ * a DSF executor) and hands them to the UI thread in batches, at most
+ * once per flush interval.  This way a burst of thousands of suspend
+ * events results in a handful of UI updates instead of one each.
+ *
+ * Records that arrive while too many are already pending are dropped
+ * and counted, so that the UI can never fall behind indefinitely.
+ */
+public class FrameRecordBatcher {
+
+	public static final int DEFAULT_FLUSH_INTERVAL = 30;
+	public static final int DEFAULT_MAX_PENDING = 10000;
+
+	/**
+	 * Receives the batched records.  Always called on the UI thread.
+	 */
+	public interface IBatchListener {
+		void recordsFlushed(List<FrameRecord> records);
+	}
+
+	private final Display fDisplay;
+	private final IBatchListener fListener;
+	private final int fMaxPending;
+	private volatile int fFlushInterval = DEFAULT_FLUSH_INTERVAL;
+	private volatile boolean fDisposed;
+
+	private final ConcurrentLinkedQueue<FrameRecord> fQueue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger fPendingCount = new AtomicInteger();
+	private final AtomicBoolean fFlushScheduled = new AtomicBoolean();
+
+	private final AtomicLong fReceivedCount = new AtomicLong();
+	private final AtomicLong fDroppedCount = new AtomicLong();
+	private final AtomicLong fFlushCount = new AtomicLong();
+
+	private final Runnable fFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Runnable fScheduleRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (!fDisposed) {
+				fDisplay.timerExec(fFlushInterval, fFlushRunnable);
+			}
+		}
+	};
+
+	public FrameRecordBatcher(Display display, int maxPending, IBatchListener listener) {
+		fDisplay = display;
+		fMaxPending = maxPending;
+		fListener = listener;
+	}
+
+	/**
+	 * Sets the minimum delay, in milliseconds, between two UI updates.
+	 */
+	public void setFlushInterval(int interval) {
+		fFlushInterval = Math.max(0, interval);
+	}
+
+	public int getFlushInterval() {
+		return fFlushInterval;
+	}
+
+	/**
+	 * Queues a record to be shown.  Can be called from any thread.
+	 */
+	public void add(FrameRecord record) {
+		if (fDisposed) {
+			return;
+		}
+		fReceivedCount.incrementAndGet();
+
+		if (fPendingCount.incrementAndGet() > fMaxPending) {
+			fPendingCount.decrementAndGet();
+			fDroppedCount.incrementAndGet();
+			return;
+		}
+		fQueue.offer(record);
+
+		// Only the first record of a batch needs to trigger a flush
+		if (fFlushScheduled.compareAndSet(false, true)) {
+			if (!fDisplay.isDisposed()) {
+				fDisplay.asyncExec(fScheduleRunnable);
+			}
+		}
+	}
+
+	private void flush() {
+		if (fDisposed) {
+			return;
+		}
+		// Reset the flag before draining so that any record added
+		// from now on schedules the next flush
+		fFlushScheduled.set(false);
+
+		List<FrameRecord> batch = new ArrayList<>(fPendingCount.get());
+		FrameRecord record;
+		while ((record = fQueue.poll()) != null) {
+			batch.add(record);
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		fPendingCount.addAndGet(-batch.size());
+		fFlushCount.incrementAndGet();
+
+		fListener.recordsFlushed(batch);
+	}
+
+	/**
+	 * Returns whether new records would be dropped.  Can be called from any thread.
+	 */
+	public boolean isSaturated() {
+		return fDisposed || fPendingCount.get() >= fMaxPending;
+	}
+
+	public long getReceivedCount() {
+		return fReceivedCount.get();
+	}
+
+	public long getDroppedCount() {
+		return fDroppedCount.get();
+	}
+
+	/**
+	 * Returns the number of records that were shown without
+	 * requiring a UI update of their own.
+	 */
+	public long getCoalescedCount() {
+		return Math.max(0, fReceivedCount.get() - fDroppedCount.get() - fPendingCount.get() - fFlushCount.get());
+	}
+
+	public long getFlushCount() {
+		return fFlushCount.get();
+	}
+
+	public void dispose() {
+		fDisposed = true;
+		fQueue.clear();
+		fPendingCount.set(0);
+	}
+}
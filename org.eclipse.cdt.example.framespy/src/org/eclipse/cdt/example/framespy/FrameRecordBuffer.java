@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * A bounded ring buffer of {@link FrameRecord}s.  Adding a record is
+ * O(1); once the buffer holds its maximum number of records, or its
+ * maximum estimated number of bytes, the oldest records are evicted.
+ * The limits can be changed with {@link #setLimits(int, long)}.
+ *
+ * Records are indexed from the newest (index 0) to the oldest, which is
+ * the order in which the Frame Spy view shows them.  Each record also has
+ * a sequence number, its position among all the records ever added, which
+ * does not change as newer records are added.
+ *
+ * This class is not thread-safe and is meant to be used from a single thread.
+ */
+public class FrameRecordBuffer {
+
+	private FrameRecord[] fRecords;
+	private long fMaxBytes;
+	// Index in fRecords where the next record will be stored
+	private int fHead;
+	private int fSize;
+	private long fBytes;
+	// Number of records ever added, which is the sequence number of the next one
+	private long fAddedCount;
+
+	public FrameRecordBuffer(int maxRecords, long maxBytes) {
+		if (maxRecords <= 0) {
+			throw new IllegalArgumentException("Buffer capacity must be positive"); //$NON-NLS-1$
+		}
+		fRecords = new FrameRecord[maxRecords];
+		fMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Changes the maximum number of records and of estimated bytes, evicting
+	 * the oldest records that no longer fit.  Sequence numbers are kept.
+	 */
+	public void setLimits(int maxRecords, long maxBytes) {
+		if (maxRecords <= 0) {
+			throw new IllegalArgumentException("Buffer capacity must be positive"); //$NON-NLS-1$
+		}
+		if (maxRecords != fRecords.length) {
+			// Copy the newest records that fit, from the oldest one
+			int size = Math.min(fSize, maxRecords);
+			FrameRecord[] records = new FrameRecord[maxRecords];
+			fBytes = 0;
+			for (int i = 0; i < size; i++) {
+				records[i] = get(size - 1 - i);
+				fBytes += records[i].getEstimatedSize();
+			}
+			fRecords = records;
+			fHead = size % maxRecords;
+			fSize = size;
+		}
+		fMaxBytes = maxBytes;
+		while (fBytes > fMaxBytes && fSize > 1) {
+			evictOldest();
+		}
+	}
+
+	public void add(FrameRecord record) {
+		if (fSize == fRecords.length) {
+			evictOldest();
+		}
+		fRecords[fHead] = record;
+		fHead = (fHead + 1) % fRecords.length;
+		fSize++;
+		fBytes += record.getEstimatedSize();
+		fAddedCount++;
+
+		// Always keep the newest record, even if it is larger than the limit
+		while (fBytes > fMaxBytes && fSize > 1) {
+			evictOldest();
+		}
+	}
+
+	private void evictOldest() {
+		int tail = (fHead - fSize + fRecords.length) % fRecords.length;
+		fBytes -= fRecords[tail].getEstimatedSize();
+		fRecords[tail] = null;
+		fSize--;
+	}
+
+	/**
+	 * Returns the record at the specified index, where index 0
+	 * is the most recent record.
+	 */
+	public FrameRecord get(int index) {
+		if (index < 0 || index >= fSize) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fSize); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return fRecords[(fHead - 1 - index + fRecords.length) % fRecords.length];
+	}
+
+	/**
+	 * Returns the sequence number of the record at the specified index.
+	 */
+	public long getSequence(int index) {
+		if (index < 0 || index >= fSize) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fSize); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return fAddedCount - 1 - index;
+	}
+
+	/**
+	 * Returns the index of the record with the specified sequence number,
+	 * or -1 if it was evicted or not added yet.
+	 */
+	public int indexOf(long sequence) {
+		if (sequence < getOldestSequence() || sequence >= fAddedCount) {
+			return -1;
+		}
+		return (int)(fAddedCount - 1 - sequence);
+	}
+
+	/**
+	 * Returns the sequence number of the oldest record still in the buffer.
+	 */
+	public long getOldestSequence() {
+		return fAddedCount - fSize;
+	}
+
+	/**
+	 * Returns the sequence number the next record added will have.
+	 */
+	public long getNextSequence() {
+		return fAddedCount;
+	}
+
+	public int size() {
+		return fSize;
+	}
+
+	public int getCapacity() {
+		return fRecords.length;
+	}
+
+	public long getEstimatedBytes() {
+		return fBytes;
+	}
+
+	public void clear() {
+		for (int i = 0; i < fRecords.length; i++) {
+			fRecords[i] = null;
+		}
+		fHead = 0;
+		fSize = 0;
+		fBytes = 0;
+		fAddedCount = 0;
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.Locale;
+
+/**
+ * The criteria selecting the {@link FrameRecord}s shown in the Frame Spy
+ * log, as typed by the user.  A filter is made of terms separated by
+ * spaces, all of which must match:
+ * <ul>
+ * <li><code>text</code> - the function contains the text, ignoring case</li>
+ * <li><code>file:text</code> - the file contains the text, ignoring case</li>
+ * <li><code>thread:id</code> - the thread has exactly that id</li>
+ * <li><code>last:seconds</code> - the record is at most that many seconds old</li>
+ * </ul>
+ * Each criterion can only be given once; the last one wins.
+ *
+ * Instances are immutable.
+ */
+public class FrameRecordFilter {
+
+	private static final String FILE_PREFIX = "file:"; //$NON-NLS-1$
+	private static final String THREAD_PREFIX = "thread:"; //$NON-NLS-1$
+	private static final String LAST_PREFIX = "last:"; //$NON-NLS-1$
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final String fFunction;
+	private final String fFile;
+	private final String fThread;
+	private final long fFromTime;
+	private final long fToTime;
+
+	/**
+	 * @param function Part of the function name, or null
+	 * @param file Part of the file name, or null
+	 * @param thread The thread id, or null
+	 * @param fromTime The earliest timestamp, inclusive
+	 * @param toTime The latest timestamp, inclusive
+	 */
+	public FrameRecordFilter(String function, String file, String thread, long fromTime, long toTime) {
+		fFunction = function;
+		fFile = file;
+		fThread = thread;
+		fFromTime = fromTime;
+		fToTime = toTime;
+	}
+
+	/**
+	 * Parses a filter typed by the user.
+	 * @param now The current timestamp, from which relative times are computed
+	 * @return The filter, or null if the text has no criterion at all
+	 */
+	public static FrameRecordFilter parse(String text, long now) {
+		String function = null;
+		String file = null;
+		String thread = null;
+		long fromTime = Long.MIN_VALUE;
+		for (String term : text.trim().split("\\s+")) { //$NON-NLS-1$
+			if (term.isEmpty()) {
+				continue;
+			}
+			if (term.startsWith(FILE_PREFIX)) {
+				file = nonEmpty(term.substring(FILE_PREFIX.length()));
+			} else if (term.startsWith(THREAD_PREFIX)) {
+				thread = nonEmpty(term.substring(THREAD_PREFIX.length()));
+			} else if (term.startsWith(LAST_PREFIX)) {
+				try {
+					double seconds = Double.parseDouble(term.substring(LAST_PREFIX.length()));
+					fromTime = now - (long)(seconds * NANOS_PER_SECOND);
+				} catch (NumberFormatException e) {
+					// Probably still being typed
+				}
+			} else {
+				function = term;
+			}
+		}
+		if (function == null && file == null && thread == null && fromTime == Long.MIN_VALUE) {
+			return null;
+		}
+		return new FrameRecordFilter(function, file, thread, fromTime, Long.MAX_VALUE);
+	}
+
+	private static String nonEmpty(String str) {
+		return str.isEmpty() ? null : str;
+	}
+
+	public String getFunction() {
+		return fFunction;
+	}
+
+	public String getFile() {
+		return fFile;
+	}
+
+	public String getThread() {
+		return fThread;
+	}
+
+	public long getFromTime() {
+		return fFromTime;
+	}
+
+	public long getToTime() {
+		return fToTime;
+	}
+
+	public boolean matchesTime(long timestamp) {
+		return timestamp >= fFromTime && timestamp <= fToTime;
+	}
+
+	/**
+	 * Returns whether the record matches the filter.  Used for the records
+	 * added after the filter was applied through a {@link FrameRecordIndex}.
+	 */
+	public boolean matches(FrameRecord record) {
+		return (fFunction == null || containsIgnoreCase(record.getFunction(), fFunction))
+				&& (fFile == null || containsIgnoreCase(record.getFile(), fFile))
+				&& (fThread == null || fThread.equals(record.getThreadId()))
+				&& matchesTime(record.getTimestamp());
+	}
+
+	static boolean containsIgnoreCase(String str, String part) {
+		return str != null && str.toLowerCase(Locale.ROOT).contains(part.toLowerCase(Locale.ROOT));
+	}
+}
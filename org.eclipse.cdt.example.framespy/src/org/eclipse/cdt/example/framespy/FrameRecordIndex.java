@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Indexes the records of a {@link FrameRecordBuffer} by function, file and
+ * thread, and by time, so that the log can be filtered and searched
+ * without going through every record.
+ *
+ * Records are identified by their sequence number in the buffer, see
+ * {@link FrameRecordBuffer#getSequence(int)}.  The distinct functions,
+ * files and threads are interned in a {@link SymbolTable} per field, and
+ * each symbol has the ascending list of the records that have it.  A
+ * filter on a part of a name only looks at the distinct names, then
+ * merges the lists of those that match.
+ *
+ * Records evicted from the buffer must be removed with
+ * {@link #removeBefore(long)}, which drops them from their lists and
+ * forgets the names no remaining record has, so that the index never
+ * holds more than the records of the buffer.
+ *
+ * This class is not thread-safe and is meant to be used from a single thread.
+ */
+public class FrameRecordIndex {
+
+	public static final int FIELD_FUNCTION = 0;
+	public static final int FIELD_FILE = 1;
+	public static final int FIELD_THREAD = 2;
+	private static final int FIELD_COUNT = 3;
+
+	/**
+	 * A growable list of ascending sequence numbers, from which the
+	 * oldest ones can be dropped cheaply.
+	 */
+	public static class SequenceList {
+		private long[] fSequences = new long[8];
+		private int fStart;
+		private int fEnd;
+
+		public void add(long sequence) {
+			if (fEnd == fSequences.length) {
+				// Reclaim the dropped entries before growing
+				if (fStart > fSequences.length / 2) {
+					System.arraycopy(fSequences, fStart, fSequences, 0, fEnd - fStart);
+					fEnd -= fStart;
+					fStart = 0;
+				} else {
+					fSequences = Arrays.copyOf(fSequences, fSequences.length * 2);
+				}
+			}
+			fSequences[fEnd++] = sequence;
+		}
+
+		public long get(int index) {
+			return fSequences[fStart + index];
+		}
+
+		public int size() {
+			return fEnd - fStart;
+		}
+
+		/**
+		 * Drops the sequence numbers lower than the specified one.
+		 */
+		public void removeBefore(long sequence) {
+			fStart = ceilingPosition(sequence);
+			if (fStart == fEnd) {
+				fStart = 0;
+				fEnd = 0;
+			}
+			// Give back the memory of a list that was much longer
+			if (fSequences.length > 8 && size() < fSequences.length / 4) {
+				long[] sequences = new long[fSequences.length / 2];
+				System.arraycopy(fSequences, fStart, sequences, 0, size());
+				fEnd -= fStart;
+				fStart = 0;
+				fSequences = sequences;
+			}
+		}
+
+		/**
+		 * Returns the index of the first sequence number greater than or equal
+		 * to the specified one, or {@link #size()} if there is none.
+		 */
+		public int ceilingIndex(long sequence) {
+			return ceilingPosition(sequence) - fStart;
+		}
+
+		/**
+		 * Returns the index of the specified sequence number, or -1.
+		 */
+		public int indexOf(long sequence) {
+			int index = ceilingIndex(sequence);
+			return index < size() && get(index) == sequence ? index : -1;
+		}
+
+		private int ceilingPosition(long sequence) {
+			int low = fStart;
+			int high = fEnd;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (fSequences[mid] < sequence) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		public void clear() {
+			fStart = 0;
+			fEnd = 0;
+		}
+	}
+
+	// For each field, the distinct values and the records of each of them, by symbol id
+	private final List<SymbolTable> fSymbols = new ArrayList<>();
+	private final List<List<SequenceList>> fPostings = new ArrayList<>();
+	// For each field, the symbol id of each record still in the buffer, by
+	// sequence modulo capacity, to know which lists to trim on eviction
+	private final int[][] fSymbolIds;
+	// Timestamp of each record still in the buffer, by sequence modulo capacity
+	private final long[] fTimestamps;
+	// Highest timestamp up to each record, which unlike the timestamps
+	// themselves is always ascending and can be searched
+	private final long[] fMaxTimestamps;
+	private long fNextSequence;
+	private long fOldestSequence;
+
+	/**
+	 * @param capacity The maximum number of records of the indexed buffer
+	 */
+	public FrameRecordIndex(int capacity) {
+		fTimestamps = new long[capacity];
+		fMaxTimestamps = new long[capacity];
+		fSymbolIds = new int[FIELD_COUNT][capacity];
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			fSymbols.add(new SymbolTable());
+			fPostings.add(new ArrayList<SequenceList>());
+		}
+	}
+
+	/**
+	 * Indexes a record.  Records must be added in the order of their sequence
+	 * numbers, and the records evicted by the buffer to make room for this
+	 * one must have been removed first.
+	 */
+	public void add(long sequence, FrameRecord record) {
+		int slot = getSlot(sequence);
+		fSymbolIds[FIELD_FUNCTION][slot] = addPosting(FIELD_FUNCTION, record.getFunction(), sequence);
+		fSymbolIds[FIELD_FILE][slot] = addPosting(FIELD_FILE, record.getFile(), sequence);
+		fSymbolIds[FIELD_THREAD][slot] = addPosting(FIELD_THREAD, record.getThreadId(), sequence);
+
+		long previousMax = sequence == 0 || fNextSequence != sequence ? Long.MIN_VALUE : fMaxTimestamps[getSlot(sequence - 1)];
+		fTimestamps[slot] = record.getTimestamp();
+		fMaxTimestamps[slot] = Math.max(previousMax, record.getTimestamp());
+		if (fNextSequence != sequence) {
+			fOldestSequence = sequence;
+		}
+		fNextSequence = sequence + 1;
+	}
+
+	/**
+	 * Removes the records older than the specified sequence number, which
+	 * is the oldest record still in the buffer.
+	 */
+	public void removeBefore(long oldestSequence) {
+		long end = Math.min(oldestSequence, fNextSequence);
+		for (long sequence = fOldestSequence; sequence < end; sequence++) {
+			int slot = getSlot(sequence);
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				removePosting(field, fSymbolIds[field][slot], sequence);
+			}
+		}
+		fOldestSequence = Math.max(fOldestSequence, oldestSequence);
+	}
+
+	/**
+	 * Returns the symbol id of the value.
+	 */
+	private int addPosting(int field, String value, long sequence) {
+		int id = fSymbols.get(field).intern(value);
+		if (id == SymbolTable.NULL_ID) {
+			return id;
+		}
+		List<SequenceList> postings = fPostings.get(field);
+		while (postings.size() <= id) {
+			postings.add(null);
+		}
+		SequenceList list = postings.get(id);
+		if (list == null) {
+			list = new SequenceList();
+			postings.set(id, list);
+		}
+		list.add(sequence);
+		return id;
+	}
+
+	private void removePosting(int field, int id, long sequence) {
+		if (id == SymbolTable.NULL_ID) {
+			return;
+		}
+		List<SequenceList> postings = fPostings.get(field);
+		SequenceList list = postings.get(id);
+		list.removeBefore(sequence + 1);
+		if (list.size() == 0) {
+			// No record has this value anymore
+			postings.set(id, null);
+			fSymbols.get(field).remove(id);
+		}
+	}
+
+	private int getSlot(long sequence) {
+		return (int)(sequence % fTimestamps.length);
+	}
+
+	/**
+	 * Returns the records of the specified field that have exactly the
+	 * specified value, or null if none ever had it.
+	 */
+	private SequenceList getPostings(int field, String value) {
+		int id = fSymbols.get(field).getId(value);
+		List<SequenceList> postings = fPostings.get(field);
+		return id != SymbolTable.NULL_ID && id < postings.size() ? postings.get(id) : null;
+	}
+
+	/**
+	 * Returns the sequence numbers of the records matching the filter, in
+	 * ascending order.
+	 */
+	public SequenceList find(FrameRecordFilter filter) {
+		SequenceList result = findSubstring(FIELD_FUNCTION, filter.getFunction());
+		result = intersect(result, findSubstring(FIELD_FILE, filter.getFile()));
+		if (filter.getThread() != null) {
+			result = intersect(result, copy(getPostings(FIELD_THREAD, filter.getThread())));
+		}
+
+		SequenceList matches = new SequenceList();
+		if (result == null) {
+			// Only a time range, if anything: start at the first record that can be in it
+			for (long sequence = findFirstAtOrAfter(filter.getFromTime()); sequence < fNextSequence; sequence++) {
+				if (filter.matchesTime(fTimestamps[getSlot(sequence)])) {
+					matches.add(sequence);
+				}
+			}
+			return matches;
+		}
+		for (int i = 0; i < result.size(); i++) {
+			long sequence = result.get(i);
+			if (filter.matchesTime(fTimestamps[getSlot(sequence)])) {
+				matches.add(sequence);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the merged records of every symbol of the field that contains
+	 * the specified text, ignoring case, or null if there is no such criterion.
+	 */
+	private SequenceList findSubstring(int field, String text) {
+		if (text == null) {
+			return null;
+		}
+		SymbolTable symbols = fSymbols.get(field);
+		List<SequenceList> postings = fPostings.get(field);
+		long[] merged = new long[0];
+		int count = 0;
+		for (int id = 1; id < postings.size(); id++) {
+			SequenceList list = postings.get(id);
+			if (list == null || !FrameRecordFilter.containsIgnoreCase(symbols.getSymbol(id), text)) {
+				continue;
+			}
+			if (merged.length < count + list.size()) {
+				merged = Arrays.copyOf(merged, Math.max(merged.length * 2, count + list.size()));
+			}
+			for (int i = 0; i < list.size(); i++) {
+				merged[count++] = list.get(i);
+			}
+		}
+		// A record has a single value per field, so there are no duplicates
+		Arrays.sort(merged, 0, count);
+		SequenceList result = new SequenceList();
+		for (int i = 0; i < count; i++) {
+			result.add(merged[i]);
+		}
+		return result;
+	}
+
+	private static SequenceList copy(SequenceList list) {
+		SequenceList result = new SequenceList();
+		if (list != null) {
+			for (int i = 0; i < list.size(); i++) {
+				result.add(list.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the sequence numbers present in both lists; a null list means no criterion.
+	 */
+	private static SequenceList intersect(SequenceList list1, SequenceList list2) {
+		if (list1 == null) {
+			return list2;
+		}
+		if (list2 == null) {
+			return list1;
+		}
+		SequenceList result = new SequenceList();
+		int i = 0;
+		int j = 0;
+		while (i < list1.size() && j < list2.size()) {
+			long sequence1 = list1.get(i);
+			long sequence2 = list2.get(j);
+			if (sequence1 == sequence2) {
+				result.add(sequence1);
+				i++;
+				j++;
+			} else if (sequence1 < sequence2) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the first sequence number from which a record can have the
+	 * specified timestamp or a later one.  All records before it are older.
+	 */
+	private long findFirstAtOrAfter(long timestamp) {
+		long low = fOldestSequence;
+		long high = fNextSequence;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (fMaxTimestamps[getSlot(mid)] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the sequence number of the closest record after, or before,
+	 * the specified one that has the specified value for the field, or -1.
+	 */
+	public long findNext(int field, String value, long sequence, boolean forward) {
+		SequenceList list = getPostings(field, value);
+		if (list == null) {
+			return -1;
+		}
+		if (forward) {
+			int index = list.ceilingIndex(sequence + 1);
+			return index < list.size() ? list.get(index) : -1;
+		}
+		int index = list.ceilingIndex(sequence) - 1;
+		return index >= 0 ? list.get(index) : -1;
+	}
+
+	/**
+	 * Returns the number of distinct values of all fields.
+	 */
+	public int getSymbolCount() {
+		int count = 0;
+		for (SymbolTable symbols : fSymbols) {
+			count += symbols.size();
+		}
+		return count;
+	}
+
+	public void clear() {
+		for (SymbolTable symbols : fSymbols) {
+			symbols.clear();
+		}
+		for (List<SequenceList> postings : fPostings) {
+			postings.clear();
+		}
+		fNextSequence = 0;
+		fOldestSequence = 0;
+	}
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Source of the timestamps of the Frame Spy.
+ *
+ * Timestamps are plain longs counting nanoseconds since the epoch.  They
+ * come from {@link System#nanoTime()}, anchored once to the wall clock,
+ * so they are monotonic and can order events with sub-microsecond
+ * precision, while still giving the time of day.  Taking a timestamp
+ * does not allocate; formatting is only done when a record is shown.
+ */
+public class FrameSpyClock {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private static final long ANCHOR_WALL_NANOS = System.currentTimeMillis() * 1000000L;
+	private static final long ANCHOR_NANO_TIME = System.nanoTime();
+
+	// DateTimeFormatter is immutable and thread-safe, so a single instance can be shared
+	private static final DateTimeFormatter TIME_OF_DAY_FORMAT =
+			DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS").withZone(ZoneId.systemDefault()); //$NON-NLS-1$
+
+	private FrameSpyClock() {
+	}
+
+	/**
+	 * Returns the current timestamp, in nanoseconds since the epoch.
+	 */
+	public static long now() {
+		return ANCHOR_WALL_NANOS + (System.nanoTime() - ANCHOR_NANO_TIME);
+	}
+
+	/**
+	 * Formats a timestamp as a time of day with microsecond precision, e.g. "14:03:27.123456".
+	 */
+	public static String formatTimeOfDay(long timestamp) {
+		return TIME_OF_DAY_FORMAT.format(Instant.ofEpochSecond(
+				Math.floorDiv(timestamp, NANOS_PER_SECOND), Math.floorMod(timestamp, NANOS_PER_SECOND)));
+	}
+}
@@ -9,22 +9,224 @@
 
 package org.eclipse.cdt.example.framespy;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitorWithProgress;
 import org.eclipse.cdt.dsf.concurrent.Sequence;
+import org.eclipse.cdt.dsf.debug.service.command.ICommand;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandListener;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandResult;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandToken;
 import org.eclipse.cdt.dsf.gdb.service.extensions.GDBControl_HEAD;
 import org.eclipse.cdt.dsf.mi.service.command.CommandFactory;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MICommand;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIConst;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIList;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOOBRecord;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOutput;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIResult;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIResultRecord;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIStreamRecord;
+import org.eclipse.cdt.dsf.mi.service.command.output.MITuple;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIValue;
 import org.eclipse.cdt.dsf.service.DsfSession;
 import org.eclipse.debug.core.ILaunchConfiguration;
 
 public class FrameSpyControlService extends GDBControl_HEAD {
+
+	/**
+	 * Time measurements of one command in progress.
+	 */
+	private static class CommandTiming {
+		final long fQueuedTime = System.nanoTime();
+		volatile long fSentTime;
+	}
+
+	/**
+	 * Live statistics of one type of MI command.
+	 */
+	private static class CommandStatistics {
+		final LatencyHistogram fQueueWait = new LatencyHistogram();
+		final LatencyHistogram fRoundTrip = new LatencyHistogram();
+		final LatencyHistogram fOutputSize = new LatencyHistogram();
+	}
+
+	// Commands are queued and completed on the executor, but sent from
+	// the transmission thread, so these maps must be concurrent
+	private final ConcurrentMap<ICommandToken, CommandTiming> fTimings = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CommandStatistics> fStatistics = new ConcurrentHashMap<>();
+
+	private final ICommandListener fStatisticsListener = new ICommandListener() {
+		@Override
+		public void commandQueued(ICommandToken token) {
+			fTimings.put(token, new CommandTiming());
+		}
+
+		@Override
+		public void commandSent(ICommandToken token) {
+			CommandTiming timing = fTimings.get(token);
+			if (timing != null) {
+				timing.fSentTime = System.nanoTime();
+			}
+		}
+
+		@Override
+		public void commandRemoved(ICommandToken token) {
+			fTimings.remove(token);
+		}
+
+		@Override
+		public void commandDone(ICommandToken token, ICommandResult result) {
+			long now = System.nanoTime();
+			CommandTiming timing = fTimings.remove(token);
+			if (timing == null || timing.fSentTime == 0) {
+				return;
+			}
+
+			CommandStatistics statistics = getStatistics(getOperation(token.getCommand()));
+			statistics.fQueueWait.record(timing.fSentTime - timing.fQueuedTime);
+			statistics.fRoundTrip.record(now - timing.fSentTime);
+			if (result instanceof MIInfo) {
+				MIOutput output = ((MIInfo)result).getMIOutput();
+				if (output != null) {
+					statistics.fOutputSize.record(getOutputSize(output));
+				}
+			}
+		}
+	};
+
     public FrameSpyControlService(DsfSession session, ILaunchConfiguration config, CommandFactory factory) {
     	super(session, config, factory);
     }
 
+	@Override
+	public void initialize(final RequestMonitor rm) {
+		super.initialize(new RequestMonitor(getExecutor(), rm) {
+			@Override
+			protected void handleSuccess() {
+				addCommandListener(fStatisticsListener);
+				rm.done();
+			}
+		});
+	}
+
+	@Override
+	public void shutdown(RequestMonitor rm) {
+		removeCommandListener(fStatisticsListener);
+		super.shutdown(rm);
+	}
+
     @Override
 	protected Sequence getCompleteInitializationSequence(Map<String, Object> attributes, RequestMonitorWithProgress rm) {
 		return new FrameSpyFinalLaunchSequence(getSession(), attributes, rm);
 	}
-}
\ No newline at end of file
+
+	private CommandStatistics getStatistics(String operation) {
+		CommandStatistics statistics = fStatistics.get(operation);
+		if (statistics == null) {
+			CommandStatistics newStatistics = new CommandStatistics();
+			statistics = fStatistics.putIfAbsent(operation, newStatistics);
+			if (statistics == null) {
+				statistics = newStatistics;
+			}
+		}
+		return statistics;
+	}
+
+	private static String getOperation(ICommand<?> command) {
+		if (command instanceof MICommand) {
+			return ((MICommand<?>)command).getOperation();
+		}
+		return command.getClass().getSimpleName();
+	}
+
+	/**
+	 * Returns the size of the MI output of a command, in characters.  The
+	 * parsed records are measured rather than formatted again with
+	 * toString(), so that no string is built for each command; quotes and
+	 * escapes are counted as GDB sent them, but the token is not.
+	 */
+	private static long getOutputSize(MIOutput output) {
+		long size = 0;
+		for (MIOOBRecord record : output.getMIOOBRecords()) {
+			if (record instanceof MIStreamRecord) {
+				// The stream character, the string and its quotes
+				size += getConstSize(((MIStreamRecord)record).getCString()) + 1;
+			}
+		}
+		MIResultRecord resultRecord = output.getMIResultRecord();
+		if (resultRecord != null) {
+			// "^class", then ",result" for each result
+			String resultClass = resultRecord.getResultClass();
+			size += (resultClass == null ? 0 : resultClass.length()) + 1;
+			for (MIResult result : resultRecord.getMIResults()) {
+				size += getResultSize(result) + 1;
+			}
+		}
+		return size;
+	}
+
+	private static long getResultSize(MIResult result) {
+		// "variable=value"
+		return result.getVariable().length() + 1 + getValueSize(result.getMIValue());
+	}
+
+	private static long getValueSize(MIValue value) {
+		if (value instanceof MIConst) {
+			return getConstSize(((MIConst)value).getCString());
+		}
+		MIResult[] results;
+		MIValue[] values;
+		if (value instanceof MITuple) {
+			results = ((MITuple)value).getMIResults();
+			values = ((MITuple)value).getMIValues();
+		} else if (value instanceof MIList) {
+			results = ((MIList)value).getMIResults();
+			values = ((MIList)value).getMIValues();
+		} else {
+			return 0;
+		}
+
+		// Brackets, and a comma between elements
+		long size = 2;
+		int count = 0;
+		for (MIResult result : results) {
+			size += getResultSize(result);
+			count++;
+		}
+		for (MIValue element : values) {
+			size += getValueSize(element);
+			count++;
+		}
+		return size + Math.max(0, count - 1);
+	}
+
+	private static long getConstSize(String cString) {
+		return cString == null ? 2 : cString.length() + 2;
+	}
+
+	/**
+	 * Returns the queue wait time, GDB round-trip time and output size
+	 * statistics of every type of MI command sent so far.
+	 */
+	public void getCommandStatistics(DataRequestMonitor<List<MICommandStatistics>> rm) {
+		List<MICommandStatistics> result = new ArrayList<>(fStatistics.size());
+		for (Map.Entry<String, CommandStatistics> entry : fStatistics.entrySet()) {
+			CommandStatistics statistics = entry.getValue();
+			result.add(new MICommandStatistics(entry.getKey(), statistics.fQueueWait, statistics.fRoundTrip, statistics.fOutputSize));
+		}
+		rm.done(result);
+	}
+
+	public void resetCommandStatistics(RequestMonitor rm) {
+		fStatistics.clear();
+		rm.done();
+	}
+}
@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
+import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IContainerSuspendedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IExecutionDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IExitedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
+import org.eclipse.cdt.dsf.service.DsfServiceEventHandler;
+import org.eclipse.cdt.dsf.service.DsfSession;
+
+/**
+ * This singleton class produces the {@link FrameRecord}s of the Frame Spy,
+ * independently of any UI, so that the spy also works when its view is
+ * closed or when there is no workbench at all.
+ *
+ * While the spy is enabled in the {@link FrameSpyPreferences}, the engine
+ * listens to the suspend events of every DSF session, fetches the frame
+ * of each suspended thread, within the rate allowed per thread, and hands
+ * the record to every {@link IRecordListener}.  When a whole process
+ * stops, it can log the top frame of all its threads instead.
+ *
+ * Listeners give backpressure through {@link IRecordListener#isSaturated()}:
+ * when none of them can take more records, events are skipped before
+ * any GDB command is sent for them.
+ *
+ * Along with each frame, the engine has the {@link WatchSpy} of the
+ * session record the watched expressions that changed, in a buffer
+ * shared by all sessions.
+ */
+public class FrameSpyEngine {
+
+	/**
+	 * Receives the records produced by the engine.
+	 */
+	public interface IRecordListener {
+		/**
+		 * Called on the DSF executor of the session of the record.
+		 * Must not block.
+		 */
+		void recordProduced(FrameRecord record);
+
+		/**
+		 * Returns whether the listener cannot take more records for now.
+		 * Can be called from any thread.
+		 */
+		boolean isSaturated();
+	}
+
+	private static final FrameSpyEngine fInstance = new FrameSpyEngine();
+
+	private final CopyOnWriteArrayList<IRecordListener> fListeners = new CopyOnWriteArrayList<>();
+	// The sessions we listen to, and the rate limit of each of their threads
+	private FrameSpySessionRegistry fRegistry;
+	// Events ignored because no listener could take their record
+	private final AtomicLong fSkippedEvents = new AtomicLong();
+	private final WatchValueBuffer fWatchValues = new WatchValueBuffer(WatchValueBuffer.DEFAULT_CAPACITY);
+
+	private final FrameSpyPreferences.ISettingsListener fSettingsListener = new FrameSpyPreferences.ISettingsListener() {
+		@Override
+		public void settingsChanged(FrameSpySettings oldSettings, FrameSpySettings newSettings) {
+			fRegistry.setRecordsPerSecond(newSettings.getRecordsPerSecond());
+			if (newSettings.isEnabled() != oldSettings.isEnabled()) {
+				if (newSettings.isEnabled()) {
+					registerForEvents();
+				} else {
+					unregisterForEvents();
+				}
+			}
+		}
+	};
+
+	// Private constructor for singleton
+	private FrameSpyEngine() {
+	}
+
+	public static void initialize() {
+		FrameSpySettings settings = FrameSpyPreferences.getSettings();
+		fInstance.fRegistry = new FrameSpySessionRegistry(settings.getRecordsPerSecond());
+		FrameSpyPreferences.addSettingsListener(fInstance.fSettingsListener);
+		if (settings.isEnabled()) {
+			fInstance.registerForEvents();
+		}
+	}
+
+	public static void dispose() {
+		FrameSpyPreferences.removeSettingsListener(fInstance.fSettingsListener);
+		fInstance.unregisterForEvents();
+		fInstance.fRegistry.dispose();
+		fInstance.fListeners.clear();
+	}
+
+	/**
+	 * Called by the {@link FrameSpyServiceManager} for every new session.
+	 */
+	static void sessionStarted(DsfSession session) {
+		if (FrameSpyPreferences.getSettings().isEnabled()) {
+			fInstance.registerForEvents(session);
+		}
+	}
+
+	public static void addRecordListener(IRecordListener listener) {
+		fInstance.fListeners.addIfAbsent(listener);
+	}
+
+	public static void removeRecordListener(IRecordListener listener) {
+		fInstance.fListeners.remove(listener);
+	}
+
+	/**
+	 * Produces a record for the current frame of the specified context,
+	 * such as the one selected by the user.  Can be called from any thread.
+	 */
+	public static void logFrame(final IDMContext dmcontext) {
+		final DsfSession session = DsfSession.getSession(dmcontext.getSessionId());
+		if (session == null) {
+			// It could be that this session is no longer active
+			return;
+		}
+		session.getExecutor().submit(new DsfRunnable() {
+			@Override
+			public void run() {
+				fInstance.logFrameInfo(session, dmcontext, 0);
+			}
+		});
+	}
+
+	/**
+	 * Gives a record produced without a suspend event, such as by a
+	 * {@link DprintfSpy}, to the listeners.  Must be called on the DSF
+	 * executor of the session of the record.
+	 */
+	static void recordProduced(FrameRecord record) {
+		if (fInstance.hasReadyListener()) {
+			fInstance.notifyListeners(record);
+		} else {
+			fInstance.fSkippedEvents.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the values of the watched expressions of all sessions.
+	 */
+	public static WatchValueBuffer getWatchValues() {
+		return fInstance.fWatchValues;
+	}
+
+	/**
+	 * Returns the number of events suppressed because of the rate limit.
+	 */
+	public static long getTotalSuppressed() {
+		return fInstance.fRegistry.getTotalSuppressed();
+	}
+
+	/**
+	 * Returns the number of events skipped because no listener could take more records.
+	 */
+	public static long getTotalSkipped() {
+		return fInstance.fSkippedEvents.get();
+	}
+
+	private void registerForEvents() {
+		for (DsfSession session : DsfSession.getActiveSessions()) {
+			registerForEvents(session);
+		}
+	}
+
+	/**
+	 * This method registers with the specified session to receive
+	 * DSF events.
+	 * @param session The session for which we want to receive events
+	 */
+	private void registerForEvents(final DsfSession session) {
+		// Only register once per session
+		if (fRegistry.addSession(session)) {
+			session.getExecutor().submit(new DsfRunnable() {
+				@Override
+				public void run() {
+					session.addServiceEventListener(FrameSpyEngine.this, null);
+				}
+			});
+		}
+	}
+
+	/**
+	 * This method un-registers from all sessions to stop
+	 * getting DSF events.
+	 */
+	private void unregisterForEvents() {
+		for (final DsfSession session : fRegistry.clear()) {
+			if (DsfSession.isSessionActive(session.getId())) {
+				session.getExecutor().submit(new DsfRunnable() {
+					@Override
+					public void run() {
+						session.removeServiceEventListener(FrameSpyEngine.this);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Returns whether at least one listener can take a record.
+	 */
+	private boolean hasReadyListener() {
+		for (IRecordListener listener : fListeners) {
+			if (!listener.isSaturated()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void notifyListeners(FrameRecord record) {
+		for (IRecordListener listener : fListeners) {
+			listener.recordProduced(record);
+		}
+	}
+
+	/**
+	 * Must be called on the executor of the session.
+	 */
+	private void logFrameInfo(final DsfSession session, IDMContext dmcontext, long suppressedCount) {
+		// Get the FrameSpy service, which is started the first time
+		// the spy needs it in this session
+		FrameSpyService spyService = FrameSpyServiceManager.getService(session.getId());
+
+		if (spyService == null) {
+			// Service not available.  The debug session
+			// is probably terminating.
+			return;
+		}
+
+		// Let the listeners know about the events we skipped for this thread
+		if (suppressedCount > 0) {
+			notifyListeners(FrameRecord.createSuppressedSummary(
+					FrameSpyClock.now(), session.getId(),
+					FrameSpyService.getThreadId(dmcontext), suppressedCount));
+		}
+
+		updateWatches(session, spyService, dmcontext);
+
+		// A single call gives us everything we show about the frame
+		int callPathDepth = FrameSpyPreferences.getSettings().getCallPathDepth();
+		spyService.getFrameSnapshot(dmcontext, callPathDepth, new DataRequestMonitor<FrameRecord>(session.getExecutor(), null) {
+			@Override
+			protected void handleSuccess() {
+				notifyListeners(getData());
+			}
+
+			@Override
+			protected void handleError() {
+				// Ignore errors when we select elements
+				// that don't contain frames
+			}
+		});
+	}
+
+	/**
+	 * Logs the top frame of every thread of the process, all obtained with
+	 * one GDB command.  Must be called on the executor of the session.
+	 */
+	private void logAllThreads(final DsfSession session, IDMContext dmcontext, long suppressedCount) {
+		FrameSpyService spyService = FrameSpyServiceManager.getService(session.getId());
+		if (spyService == null) {
+			return;
+		}
+
+		// The rate of a process is limited as a whole, so the summary has no thread
+		if (suppressedCount > 0) {
+			notifyListeners(FrameRecord.createSuppressedSummary(
+					FrameSpyClock.now(), session.getId(), null, suppressedCount));
+		}
+
+		updateWatches(session, spyService, dmcontext);
+
+		spyService.getAllThreadsSnapshot(dmcontext, new DataRequestMonitor<List<FrameRecord>>(session.getExecutor(), null) {
+			@Override
+			protected void handleSuccess() {
+				for (FrameRecord record : getData()) {
+					notifyListeners(record);
+				}
+			}
+
+			@Override
+			protected void handleError() {
+				// Not a GDB session of ours, or the process resumed already
+			}
+		});
+	}
+
+	/**
+	 * Records the watched expressions that changed, if any.  Their commands
+	 * are queued with those of the frame.  Must be called on the executor
+	 * of the session.
+	 */
+	private void updateWatches(DsfSession session, FrameSpyService spyService, IDMContext dmcontext) {
+		spyService.getWatchSpy().update(dmcontext, new RequestMonitor(session.getExecutor(), null) {
+			@Override
+			protected void handleError() {
+				// The target resumed before the expressions could be evaluated
+			}
+		});
+	}
+
+	// This method must be public for the DSF callback to be found
+	@DsfServiceEventHandler
+	public void eventReceived(ISuspendedDMEvent event) {
+		// Most DSF event have a DM context
+		IDMContext dmcontext = event.getDMContext();
+		if (dmcontext == null) {
+			return;
+		}
+
+		// Extract DSF session id from the DM context
+		String sessionId = dmcontext.getSessionId();
+		// Get the full DSF session to have access to the DSF executor
+		DsfSession session = DsfSession.getSession(sessionId);
+		if (session == null) {
+			return;
+		}
+
+		// The sampling profiler stops the target many times per second;
+		// these stops are recorded by the profiler itself.  There is no
+		// profiler if the service was never started.
+		FrameSpyService spyService = FrameSpyServiceManager.getStartedService(sessionId);
+		if (spyService != null && spyService.getSamplingProfiler().isSampleInProgress()) {
+			return;
+		}
+
+		// Nobody would take the record, so don't pay for it
+		if (!hasReadyListener()) {
+			fSkippedEvents.incrementAndGet();
+			return;
+		}
+
+		// For container events (all-stop mode), either log every thread
+		// or extract the triggering thread
+		if (event instanceof IContainerSuspendedDMEvent && FrameSpyPreferences.getSettings().isAllThreads()) {
+			IExecutionDMContext container = DMContexts.getAncestorOfType(dmcontext, IExecutionDMContext.class);
+			long suppressedCount = 0;
+			if (container != null) {
+				suppressedCount = fRegistry.acquire(container);
+				if (suppressedCount == FrameSpySessionRegistry.SUPPRESSED) {
+					return;
+				}
+			}
+			logAllThreads(session, dmcontext, suppressedCount);
+			return;
+		}
+		if (event instanceof IContainerSuspendedDMEvent) {
+			IExecutionDMContext[] triggers = ((IContainerSuspendedDMEvent)event).getTriggeringContexts();
+			if (triggers != null && triggers.length > 0) {
+				assert triggers.length == 1;
+				dmcontext = triggers[0];
+			}
+		}
+
+		// Don't even query GDB if this thread already produced
+		// more records than allowed recently
+		IExecutionDMContext execContext = DMContexts.getAncestorOfType(dmcontext, IExecutionDMContext.class);
+		long suppressedCount = 0;
+		if (execContext != null) {
+			suppressedCount = fRegistry.acquire(execContext);
+			if (suppressedCount == FrameSpySessionRegistry.SUPPRESSED) {
+				return;
+			}
+		}
+
+		logFrameInfo(session, dmcontext, suppressedCount);
+	}
+
+	@DsfServiceEventHandler
+	public void eventReceived(IExitedDMEvent event) {
+		// Forget the rate limits of threads and processes that are gone
+		IDMContext dmcontext = event.getDMContext();
+		if (dmcontext == null) {
+			return;
+		}
+		Map<IExecutionDMContext, Long> pending = fRegistry.removeContexts(dmcontext);
+		// No later event will report what these contexts had suppressed
+		for (Map.Entry<IExecutionDMContext, Long> entry : pending.entrySet()) {
+			notifyListeners(FrameRecord.createSuppressedSummary(
+					FrameSpyClock.now(), dmcontext.getSessionId(),
+					FrameSpyService.getThreadId(entry.getKey()), entry.getValue()));
+		}
+	}
+}
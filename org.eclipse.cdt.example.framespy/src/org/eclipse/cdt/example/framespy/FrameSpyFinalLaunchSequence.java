@@ -11,19 +11,60 @@ package org.eclipse.cdt.example.framespy;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.ImmediateExecutor;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitorWithProgress;
 import org.eclipse.cdt.dsf.gdb.launching.FinalLaunchSequence_7_7;
-import org.eclipse.cdt.dsf.service.DsfServicesTracker;
 import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
 
 public class FrameSpyFinalLaunchSequence extends FinalLaunchSequence_7_7 {
 
+	// Steps that only send a GDB setting which no other step depends on
+	private static final String[] INDEPENDENT_STEPS = {
+		"stepSetBreakpointPending", //$NON-NLS-1$
+		"stepSetPrintObject", //$NON-NLS-1$
+		"stepSetCharset", //$NON-NLS-1$
+		"stepSetAutoLoadSharedLibrarySymbols", //$NON-NLS-1$
+		"stepSetSourceSubstitutePath", //$NON-NLS-1$
+	};
+
+	// Steps of the base class that send GDB settings the user could also
+	// give in the launch configuration
+	private static final String[] BASE_SETTING_STEPS = {
+		"stepSetBreakpointPending", //$NON-NLS-1$
+		"stepEnablePrettyPrinting", //$NON-NLS-1$
+		"stepSetPrintObject", //$NON-NLS-1$
+		"stepSetCharset", //$NON-NLS-1$
+		"stepSetAutoLoadSharedLibrarySymbols", //$NON-NLS-1$
+		"stepSetSharedLibraryPaths", //$NON-NLS-1$
+		"stepSetSourceSubstitutePath", //$NON-NLS-1$
+		"stepSetNonStop", //$NON-NLS-1$
+	};
+
+	private final Map<String, Object> fAttributes;
+	private final LaunchTimeline fTimeline = new LaunchTimeline();
+	private Step[] fTimedSteps;
+
+	// Independent steps started but not completed yet, and the step
+	// waiting for them to complete before it can start.  Only accessed
+	// on the DSF executor.
+	private int fPendingIndependentSteps;
+	private Runnable fBarrierStep;
+	private IStatus fIndependentStepsStatus = Status.OK_STATUS;
+	private boolean fTimelineReported;
+
     public FrameSpyFinalLaunchSequence(DsfSession session, Map<String, Object> attributes, RequestMonitorWithProgress rm) {
         super(session, attributes, rm);
+        fAttributes = attributes;
     }
 
     @Override
@@ -33,28 +74,355 @@ public class FrameSpyFinalLaunchSequence extends FinalLaunchSequence_7_7 {
             // We need to create a list that we can modify, which is why we create our own ArrayList.
 			List<String> orderList = new ArrayList<String>(Arrays.asList(super.getExecutionOrder(GROUP_TOP_LEVEL)));
 
-            // Add the step to enable verbose as early as possible. However, let's wait until
-			// we've fetched the gdb version to avoid other printouts before those.
-            orderList.add(orderList.indexOf("stepGDBVersion")+1, "stepSetVerbose"); //$NON-NLS-1
-            
+			// Apply our settings after the gdbinit file and after every step of the
+			// base class that sets GDB settings of its own, so that ours take
+			// precedence, but before connecting to the target since some, like
+			// non-stop, must be set by then.
+			int index = orderList.indexOf("stepSourceGDBInitFile"); //$NON-NLS-1$
+			if (index < 0) {
+				index = orderList.indexOf("stepGDBVersion"); //$NON-NLS-1$
+			}
+			for (String step : BASE_SETTING_STEPS) {
+				index = Math.max(index, orderList.indexOf(step));
+			}
+			orderList.add(index + 1, "stepSetGdbSettings"); //$NON-NLS-1$
+
             return orderList.toArray(new String[orderList.size()]);
         }
 
         return null;
     }
-    
-    @Execute
-    public void stepSetVerbose(final RequestMonitor rm) {
-        DsfServicesTracker tracker = new DsfServicesTracker(Activator.getBundleContext(), getSession().getId());
-        FrameSpyService service = tracker.getService(FrameSpyService.class);        
-        tracker.dispose();
-        service.setVerbose(true, new RequestMonitor(service.getExecutor(), rm) {
-            @Override
-            protected void handleCompleted() {
-                // Accept errors by overriding handleCompleted() instead of handleSuccess()
-                rm.done();
-            }
-        });
-    }
-}
 
+	/**
+	 * Applies the GDB settings of the launch configuration in a single batch.
+	 * Settings that fail are logged but do not abort the launch.
+	 */
+	@Execute
+	public void stepSetGdbSettings(final RequestMonitor rm) {
+		FrameSpyService service = getSpyService();
+		Object settings = fAttributes.get(IFrameSpyLaunchConstants.ATTR_GDB_SETTINGS);
+		if (service == null || !(settings instanceof Map) || ((Map<?, ?>)settings).isEmpty()) {
+			rm.done();
+			return;
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, String> settingsMap = (Map<String, String>)settings;
+		service.setGdbSettings(settingsMap, new DataRequestMonitor<Map<String, IStatus>>(getExecutor(), rm) {
+			@Override
+			protected void handleCompleted() {
+				if (isSuccess()) {
+					MultiStatus failures = new MultiStatus(Activator.PLUGIN_ID, 0, "Some GDB settings could not be applied", null);
+					for (Map.Entry<String, IStatus> result : getData().entrySet()) {
+						if (!result.getValue().isOK()) {
+							failures.add(new Status(IStatus.WARNING, Activator.PLUGIN_ID,
+									"set " + result.getKey() + ": " + result.getValue().getMessage()));
+						}
+					}
+					if (!failures.isOK()) {
+						Activator.log(failures);
+					}
+				}
+				// Accept errors by overriding handleCompleted() instead of handleSuccess()
+				rm.done();
+			}
+		});
+	}
+
+	/**
+	 * Returns the names of the steps that can run concurrently with the steps
+	 * that follow them.  Such a step is started, and the next step starts
+	 * right away, so that their commands are queued to GDB back to back.
+	 * The first step that is not independent waits for all of them to complete.
+	 */
+	protected Set<String> getIndependentSteps() {
+		return new HashSet<>(Arrays.asList(INDEPENDENT_STEPS));
+	}
+
+	/**
+	 * Wraps every step to measure it and to run the independent ones concurrently.
+	 */
+	@Override
+	public Step[] getSteps() {
+		if (fTimedSteps == null) {
+			Step[] steps = super.getSteps();
+			List<String> names = new ArrayList<>();
+			addStepNames(GROUP_TOP_LEVEL, names);
+			if (names.size() != steps.length) {
+				// Not the steps we expected, don't take the risk of reordering them
+				names.clear();
+			}
+			Set<String> independentSteps = getIndependentSteps();
+
+			fTimedSteps = new Step[steps.length];
+			for (int i = 0; i < steps.length; i++) {
+				String name = i < names.size() ? names.get(i) : "step " + i; //$NON-NLS-1$
+				boolean last = i == steps.length - 1;
+				fTimedSteps[i] = new TimedStep(steps[i], name, i, !last && independentSteps.contains(name), last);
+			}
+		}
+		return fTimedSteps;
+	}
+
+	/**
+	 * Adds the names of the steps of the specified group, in the order
+	 * they are executed, expanding nested groups like the base class does.
+	 */
+	private void addStepNames(String group, List<String> names) {
+		for (String name : getExecutionOrder(group)) {
+			if (getExecutionOrder(name) != null) {
+				addStepNames(name, names);
+			} else {
+				names.add(name);
+			}
+		}
+	}
+
+	public LaunchTimeline getTimeline() {
+		return fTimeline;
+	}
+
+	private class TimedStep extends Step {
+		private final Step fStep;
+		private final String fName;
+		private final int fIndex;
+		private final boolean fIndependent;
+		private final boolean fLast;
+
+		TimedStep(Step step, String name, int index, boolean independent, boolean last) {
+			fStep = step;
+			fName = name;
+			fIndex = index;
+			fIndependent = independent;
+			fLast = last;
+		}
+
+		@Override
+		public void execute(final RequestMonitor rm) {
+			if (fIndependent) {
+				executeIndependent(rm);
+				return;
+			}
+
+			Runnable execution = new Runnable() {
+				@Override
+				public void run() {
+					if (!fIndependentStepsStatus.isOK()) {
+						// Report the failure of an independent step
+						// as the failure of the first step waiting for it
+						failed();
+						rm.done(fIndependentStepsStatus);
+						return;
+					}
+
+					final long start = System.nanoTime();
+					fStep.execute(new RequestMonitor(ImmediateExecutor.getInstance(), rm) {
+						@Override
+						protected void handleCompleted() {
+							fTimeline.addStep(fName, start, System.nanoTime(), false, isSuccess());
+							if (!isSuccess()) {
+								failed();
+							} else if (fLast) {
+								reportTimeline(false);
+							}
+							super.handleCompleted();
+						}
+					});
+				}
+			};
+
+			if (fPendingIndependentSteps > 0) {
+				fBarrierStep = execution;
+			} else {
+				execution.run();
+			}
+		}
+
+		private void executeIndependent(RequestMonitor rm) {
+			final long start = System.nanoTime();
+			fPendingIndependentSteps++;
+			fStep.execute(new RequestMonitor(ImmediateExecutor.getInstance(), null) {
+				@Override
+				protected void handleCompleted() {
+					fTimeline.addStep(fName, start, System.nanoTime(), true, isSuccess());
+					if (!isSuccess() && fIndependentStepsStatus.isOK()) {
+						fIndependentStepsStatus = getStatus();
+					}
+
+					fPendingIndependentSteps--;
+					if (fPendingIndependentSteps == 0 && fBarrierStep != null) {
+						Runnable barrierStep = fBarrierStep;
+						fBarrierStep = null;
+						barrierStep.run();
+					}
+				}
+			});
+			// Let the sequence go on without waiting for GDB
+			rm.done();
+		}
+
+		/**
+		 * Called when this step fails.  The sequence then rolls back the
+		 * steps before it, so the timeline is only reported once the first
+		 * step is rolled back, unless there is no step to roll back.
+		 */
+		private void failed() {
+			if (fIndex == 0) {
+				reportTimeline(true);
+			}
+		}
+
+		/**
+		 * Also called when the launch is canceled.  Rollbacks are added to
+		 * the timeline like steps, and the timeline is reported once the
+		 * first step is rolled back, the last thing the sequence does.
+		 */
+		@Override
+		public void rollBack(RequestMonitor rm) {
+			final long start = System.nanoTime();
+			fStep.rollBack(new RequestMonitor(ImmediateExecutor.getInstance(), rm) {
+				@Override
+				protected void handleCompleted() {
+					fTimeline.addStep(fName + " rollback", start, System.nanoTime(), false, isSuccess()); //$NON-NLS-1$
+					if (fIndex == 0) {
+						reportTimeline(true);
+					}
+					super.handleCompleted();
+				}
+			});
+		}
+
+		@Override
+		public int getTicks() {
+			return fStep.getTicks();
+		}
+	}
+
+	/**
+	 * Makes the timeline available from the service and, if the launch
+	 * failed or was canceled, logs it.
+	 */
+	private void reportTimeline(boolean failed) {
+		if (fTimelineReported) {
+			return;
+		}
+		fTimelineReported = true;
+		fTimeline.end();
+
+		// A successful launch doesn't need to fill the log
+		if (failed) {
+			MultiStatus status = new MultiStatus(Activator.PLUGIN_ID, 0, String.format(
+					"Launch timeline of session %s: %.1f ms", getSession().getId(), fTimeline.getTotalDuration() / 1e6), null);
+			for (LaunchTimeline.Entry entry : fTimeline.getEntries()) {
+				status.add(new Status(IStatus.INFO, Activator.PLUGIN_ID, entry.toString()));
+			}
+			Activator.log(status);
+		}
+
+		FrameSpyService service = getSpyService();
+		if (service != null) {
+			service.setLaunchTimeline(fTimeline);
+		}
+	}
+
+	// Verbose mode is only enabled around the steps that make GDB read
+	// symbols, so that the rest of the launch does not pay for its output.
+	// Overridden steps need their own @Execute annotation to be found.
+
+	@Override
+	@Execute
+	public void stepRemoteConnection(final RequestMonitor rm) {
+		startVerboseCapture("remote connection", new RequestMonitor(getExecutor(), rm) { //$NON-NLS-1$
+			@Override
+			protected void handleCompleted() {
+				FrameSpyFinalLaunchSequence.super.stepRemoteConnection(stopVerboseCapture(rm));
+			}
+		});
+	}
+
+	@Override
+	@Execute
+	public void stepAttachToProcess(final RequestMonitor rm) {
+		startVerboseCapture("attach to process", new RequestMonitor(getExecutor(), rm) { //$NON-NLS-1$
+			@Override
+			protected void handleCompleted() {
+				FrameSpyFinalLaunchSequence.super.stepAttachToProcess(stopVerboseCapture(rm));
+			}
+		});
+	}
+
+	@Override
+	@Execute
+	public void stepNewProcess(final RequestMonitor rm) {
+		startVerboseCapture("new process", new RequestMonitor(getExecutor(), rm) { //$NON-NLS-1$
+			@Override
+			protected void handleCompleted() {
+				FrameSpyFinalLaunchSequence.super.stepNewProcess(stopVerboseCapture(rm));
+			}
+		});
+	}
+
+	private boolean isVerboseCaptureEnabled() {
+		Object value = fAttributes.get(IFrameSpyLaunchConstants.ATTR_VERBOSE_CAPTURE);
+		return value instanceof Boolean ? (Boolean)value : IFrameSpyLaunchConstants.DEBUGGER_VERBOSE_CAPTURE_DEFAULT;
+	}
+
+	/**
+	 * Returns the spy service, starting it if needed: our launches always use it.
+	 */
+	private FrameSpyService getSpyService() {
+		return FrameSpyServiceManager.getService(getSession().getId());
+	}
+
+	/**
+	 * Turns on verbose capture, if enabled, then calls rm.  Capture errors
+	 * are ignored since they must not prevent the launch.
+	 */
+	private void startVerboseCapture(String phase, RequestMonitor rm) {
+		FrameSpyService service = getSpyService();
+		if (service == null || !isVerboseCaptureEnabled()) {
+			rm.done();
+			return;
+		}
+		service.startVerboseCapture(phase, rm);
+	}
+
+	/**
+	 * Returns a request monitor that turns off verbose capture, logs the
+	 * timing summary of the phase and then completes rm with the status
+	 * of the step.
+	 */
+	private RequestMonitor stopVerboseCapture(final RequestMonitor rm) {
+		final FrameSpyService service = getSpyService();
+		if (service == null || !service.getVerboseCapture().isCapturing()) {
+			return rm;
+		}
+
+		return new RequestMonitor(getExecutor(), rm) {
+			@Override
+			protected void handleCompleted() {
+				final IStatus stepStatus = getStatus();
+				service.stopVerboseCapture(new DataRequestMonitor<List<String>>(getExecutor(), rm) {
+					@Override
+					protected void handleCompleted() {
+						// Only log what the user asked for, in case someone
+						// else started the capture
+						if (isSuccess() && isVerboseCaptureEnabled()) {
+							logSummary(getData());
+						}
+						rm.setStatus(stepStatus);
+						rm.done();
+					}
+				});
+			}
+		};
+	}
+
+	private void logSummary(List<String> summary) {
+		MultiStatus status = new MultiStatus(Activator.PLUGIN_ID, 0, "GDB symbol loading times for session " + getSession().getId(), null);
+		for (String line : summary) {
+			status.add(new Status(IStatus.INFO, Activator.PLUGIN_ID, line));
+		}
+		Activator.log(status);
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.osgi.service.prefs.BackingStoreException;
+
+/**
+ * This singleton class keeps the current {@link FrameSpySettings} in a
+ * volatile field, so that code running on every DSF event can read them
+ * without going to the preference store.
+ *
+ * The snapshot is loaded from the instance preferences once, updated
+ * when they change, and changes are saved to disk by a background job.
+ */
+public class FrameSpyPreferences implements IPreferenceChangeListener {
+
+	/**
+	 * Notified whenever the settings change, in the thread that changed them.
+	 */
+	public interface ISettingsListener {
+		void settingsChanged(FrameSpySettings oldSettings, FrameSpySettings newSettings);
+	}
+
+	/**
+	 * Computes new settings from the current ones, see {@link FrameSpyPreferences#updateSettings}.
+	 */
+	public interface ISettingsUpdater {
+		FrameSpySettings update(FrameSpySettings settings);
+	}
+
+	private static final String ENABLED_KEY = "toggle.state"; //$NON-NLS-1$
+	private static final String RECORDS_PER_SECOND_KEY = "records.per.second"; //$NON-NLS-1$
+	private static final String MAX_LOG_RECORDS_KEY = "log.max.records"; //$NON-NLS-1$
+	private static final String MAX_LOG_SIZE_KEY = "log.max.size"; //$NON-NLS-1$
+	private static final String FLUSH_INTERVAL_KEY = "log.flush.interval"; //$NON-NLS-1$
+	private static final String CALL_PATH_DEPTH_KEY = "call.path.depth"; //$NON-NLS-1$
+	private static final String ALL_THREADS_KEY = "all.threads"; //$NON-NLS-1$
+	private static final String SAMPLING_RATE_KEY = "sampling.rate"; //$NON-NLS-1$
+	private static final String SAMPLING_DEPTH_KEY = "sampling.depth"; //$NON-NLS-1$
+	private static final String SAMPLING_MAX_OVERHEAD_KEY = "sampling.max.overhead"; //$NON-NLS-1$
+	private static final String TARGET_TIME_EXPRESSION_KEY = "target.time.expression"; //$NON-NLS-1$
+	private static final String TARGET_TIME_UNIT_KEY = "target.time.unit"; //$NON-NLS-1$
+
+	// Delay before saving, so that a burst of changes is saved once
+	private static final long SAVE_DELAY = 500;
+
+	private static final FrameSpyPreferences fInstance = new FrameSpyPreferences();
+
+	private volatile FrameSpySettings fSettings = FrameSpySettings.DEFAULT;
+	private final CopyOnWriteArrayList<ISettingsListener> fListeners = new CopyOnWriteArrayList<>();
+	// Set while we write the preferences ourselves, guarded by this
+	private boolean fWriting;
+
+	private final Job fSaveJob = new Job("Save Frame Spy preferences") {
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				getNode().flush();
+			} catch (BackingStoreException e) {
+				return new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot save Frame Spy preferences", e);
+			}
+			return Status.OK_STATUS;
+		}
+	};
+
+	// Private constructor for singleton
+	private FrameSpyPreferences() {
+		fSaveJob.setSystem(true);
+	}
+
+	public static void initialize() {
+		fInstance.fSettings = load(getNode());
+		getNode().addPreferenceChangeListener(fInstance);
+	}
+
+	public static void dispose() {
+		getNode().removePreferenceChangeListener(fInstance);
+		// Don't lose the last changes, the job may not get to run anymore
+		if (fInstance.fSaveJob.cancel()) {
+			try {
+				getNode().flush();
+			} catch (BackingStoreException e) {
+				Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot save Frame Spy preferences", e));
+			}
+		}
+	}
+
+	/**
+	 * Returns the current settings.  Cheap enough to be called on every event.
+	 */
+	public static FrameSpySettings getSettings() {
+		return fInstance.fSettings;
+	}
+
+	/**
+	 * Makes the specified settings current and saves them in the background.
+	 * To change some of the current settings, use {@link #updateSettings}
+	 * instead, so that concurrent changes to other settings are not lost.
+	 */
+	public static void setSettings(final FrameSpySettings settings) {
+		fInstance.doUpdateSettings(new ISettingsUpdater() {
+			@Override
+			public FrameSpySettings update(FrameSpySettings oldSettings) {
+				return settings;
+			}
+		});
+	}
+
+	/**
+	 * Atomically replaces the current settings by those computed by the
+	 * updater from them, typically with one of the <code>with</code>
+	 * methods of {@link FrameSpySettings}, and saves them in the background.
+	 * The updater must be quick, since other changes wait for it.
+	 */
+	public static void updateSettings(ISettingsUpdater updater) {
+		fInstance.doUpdateSettings(updater);
+	}
+
+	public static void addSettingsListener(ISettingsListener listener) {
+		fInstance.fListeners.add(listener);
+	}
+
+	public static void removeSettingsListener(ISettingsListener listener) {
+		fInstance.fListeners.remove(listener);
+	}
+
+	private static IEclipsePreferences getNode() {
+		return InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID);
+	}
+
+	private void doUpdateSettings(ISettingsUpdater updater) {
+		FrameSpySettings oldSettings;
+		FrameSpySettings settings;
+		// All changes are made under the lock, so no other change can
+		// happen between reading the current settings and replacing them
+		synchronized (this) {
+			oldSettings = fSettings;
+			settings = updater.update(oldSettings);
+			fSettings = settings;
+
+			fWriting = true;
+			try {
+				IEclipsePreferences node = getNode();
+				node.putBoolean(ENABLED_KEY, settings.isEnabled());
+				node.putInt(RECORDS_PER_SECOND_KEY, settings.getRecordsPerSecond());
+				node.putInt(MAX_LOG_RECORDS_KEY, settings.getMaxLogRecords());
+				node.putLong(MAX_LOG_SIZE_KEY, settings.getMaxLogSize());
+				node.putInt(FLUSH_INTERVAL_KEY, settings.getFlushInterval());
+				node.putInt(CALL_PATH_DEPTH_KEY, settings.getCallPathDepth());
+				node.putBoolean(ALL_THREADS_KEY, settings.isAllThreads());
+				node.putInt(SAMPLING_RATE_KEY, settings.getSamplingRate());
+				node.putInt(SAMPLING_DEPTH_KEY, settings.getSamplingDepth());
+				node.putDouble(SAMPLING_MAX_OVERHEAD_KEY, settings.getSamplingMaxOverhead());
+				if (settings.getTargetTimeExpression() == null) {
+					node.remove(TARGET_TIME_EXPRESSION_KEY);
+				} else {
+					node.put(TARGET_TIME_EXPRESSION_KEY, settings.getTargetTimeExpression());
+				}
+				node.putLong(TARGET_TIME_UNIT_KEY, settings.getTargetTimeUnit());
+			} finally {
+				fWriting = false;
+			}
+		}
+		fSaveJob.schedule(SAVE_DELAY);
+		notifyListeners(oldSettings, settings);
+	}
+
+	@Override
+	public void preferenceChange(PreferenceChangeEvent event) {
+		// Someone else changed the preferences, e.g. by importing them
+		FrameSpySettings oldSettings;
+		FrameSpySettings newSettings;
+		synchronized (this) {
+			if (fWriting) {
+				return;
+			}
+			oldSettings = fSettings;
+			newSettings = load(getNode());
+			fSettings = newSettings;
+		}
+		notifyListeners(oldSettings, newSettings);
+	}
+
+	private void notifyListeners(FrameSpySettings oldSettings, FrameSpySettings newSettings) {
+		for (ISettingsListener listener : fListeners) {
+			listener.settingsChanged(oldSettings, newSettings);
+		}
+	}
+
+	private static FrameSpySettings load(IEclipsePreferences node) {
+		FrameSpySettings defaults = FrameSpySettings.DEFAULT;
+		return new FrameSpySettings(
+				node.getBoolean(ENABLED_KEY, defaults.isEnabled()),
+				node.getInt(RECORDS_PER_SECOND_KEY, defaults.getRecordsPerSecond()),
+				node.getInt(MAX_LOG_RECORDS_KEY, defaults.getMaxLogRecords()),
+				node.getLong(MAX_LOG_SIZE_KEY, defaults.getMaxLogSize()),
+				node.getInt(FLUSH_INTERVAL_KEY, defaults.getFlushInterval()),
+				node.getInt(CALL_PATH_DEPTH_KEY, defaults.getCallPathDepth()),
+				node.getBoolean(ALL_THREADS_KEY, defaults.isAllThreads()),
+				node.getInt(SAMPLING_RATE_KEY, defaults.getSamplingRate()),
+				node.getInt(SAMPLING_DEPTH_KEY, defaults.getSamplingDepth()),
+				node.getDouble(SAMPLING_MAX_OVERHEAD_KEY, defaults.getSamplingMaxOverhead()),
+				node.get(TARGET_TIME_EXPRESSION_KEY, defaults.getTargetTimeExpression()),
+				node.getLong(TARGET_TIME_UNIT_KEY, defaults.getTargetTimeUnit()));
+	}
+}
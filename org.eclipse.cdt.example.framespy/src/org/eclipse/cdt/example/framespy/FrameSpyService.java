@@ -9,29 +9,86 @@
 
 package org.eclipse.cdt.example.framespy;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IExitedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IResumedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
 import org.eclipse.cdt.dsf.debug.service.IStack;
 import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
-import org.eclipse.cdt.dsf.debug.service.IStack.IVariableDMContext;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMData;
 import org.eclipse.cdt.dsf.debug.service.command.ICommandControlService;
+import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
+import org.eclipse.cdt.dsf.mi.service.IMIContainerDMContext;
+import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIGDBSet;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIArg;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIDataEvaluateExpressionInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIFrame;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIStackListArgumentsInfo;
 import org.eclipse.cdt.dsf.service.AbstractDsfService;
+import org.eclipse.cdt.dsf.service.DsfServiceEventHandler;
 import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.debug.core.ILaunchConfiguration;
 import org.osgi.framework.BundleContext;
 
 public class FrameSpyService extends AbstractDsfService {
 
+	// Number of arguments of the function of a frame, keyed by function and
+	// address.  It does not depend on the thread or on the suspend, so it is
+	// kept until the process exits, up to a bounded number of locations.
+	// Only accessed on the DSF executor.
+	private static final int MAX_ARG_COUNTS = 4096;
+	private final Map<String, Integer> fArgCountCache = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_ARG_COUNTS;
+		}
+	};
+	// Target time obtained for each thread, valid until the thread resumes,
+	// and the settings it was obtained with
+	private final Map<IMIExecutionDMContext, Long> fTargetTimeCache = new HashMap<>();
+	private String fTargetTimeExpression;
+	private long fTargetTimeUnit;
+
+	// GDB's verbose output during the launch phases that load symbols
+	private final VerboseCapture fVerboseCapture = new VerboseCapture(VerboseCapture.DEFAULT_MAX_LINES);
+	// Timing of the steps of the launch, once it is complete
+	private LaunchTimeline fLaunchTimeline;
+	// Previous stack of each thread, to only fetch the frames that changed
+	private final CallPathTracker fCallPathTracker;
+	private final SamplingProfiler fSamplingProfiler = new SamplingProfiler(this);
+	// Dprintfs logging frames without stopping the target
+	private final DprintfSpy fDprintfSpy = new DprintfSpy(this);
+	// Expressions recorded along with the frames
+	private final WatchSpy fWatchSpy = new WatchSpy(this);
+	private boolean fShutDown;
+
 	public FrameSpyService(DsfSession session) {
 		super(session);
+		fCallPathTracker = new CallPathTracker(getExecutor());
 	}
 
 	@Override
@@ -45,6 +102,9 @@ public class FrameSpyService extends AbstractDsfService {
 			new RequestMonitor(getExecutor(), rm) {
 				@Override
 				protected void handleSuccess() {
+					// Listen for run control events to know when our caches become invalid
+					getSession().addServiceEventListener(FrameSpyService.this, null);
+
 					// Register when the service is ready to be called
 					register(new String[]{FrameSpyService.class.getName()}, new Hashtable<String,String>());
 					rm.done();
@@ -52,45 +112,391 @@ public class FrameSpyService extends AbstractDsfService {
 			});
 	}
 	
+	/**
+	 * Returns the specified service of our session, or null if it is not available.
+	 */
+	protected <V> V getService(Class<V> serviceClass) {
+		return getServicesTracker().getService(serviceClass);
+	}
+
 	@Override
 	public void shutdown(RequestMonitor rm) {
 		// Unregister first, so that no one calls us anymore
+		fShutDown = true;
 		unregister();
+		fSamplingProfiler.stop();
+		fDprintfSpy.dispose();
+		fWatchSpy.dispose();
+		getSession().removeServiceEventListener(this);
+		ICommandControlService controlService = getService(ICommandControlService.class);
+		if (controlService != null) {
+			controlService.removeEventListener(fVerboseCapture);
+		}
 		super.shutdown(rm);
 	}
 	
+	/**
+	 * Returns whether {@link #shutdown} was called.
+	 */
+	public boolean isShutDown() {
+		return fShutDown;
+	}
+
 	public String getLocalTimeOfDayString() {
-		return new SimpleDateFormat("HH:mm:ss").format(Calendar.getInstance().getTime());
+		return FrameSpyClock.formatTimeOfDay(FrameSpyClock.now());
 	}
 	
-	// The asynchronous method below is more versatile because it could
-	// be used to go ask GDB the time of day on the target.
+	// The asynchronous method below asks GDB the time of day on the target.
 	// Since sending message to GDB is considered long, we must use an
 	// asynchronous method.
-	public void getTargetTimeOfDayString(DataRequestMonitor<String> rm) {
-		rm.done(new SimpleDateFormat("HH:mm:ss").format(Calendar.getInstance().getTime()));
+	public void getTargetTimeOfDayString(IDMContext context, final DataRequestMonitor<String> rm) {
+		getTargetTime(context, new DataRequestMonitor<Long>(getExecutor(), rm) {
+			@Override
+			protected void handleSuccess() {
+				rm.done(FrameSpyClock.formatTimeOfDay(getData()));
+			}
+		});
 	}
-	
-	public void getNumberArguments(IFrameDMContext frame, DataRequestMonitor<Integer> rm) {
-		IStack stackService = getServicesTracker().getService(IStack.class);
+
+	/**
+	 * Returns the time of the target for the specified suspended context, in
+	 * nanoseconds, by evaluating the target time expression of the
+	 * {@link FrameSpySettings} and converting its value with the target
+	 * time unit.  The origin is the one of the target's clock; it is the
+	 * epoch, like for {@link FrameSpyClock}, if the expression gives the
+	 * time of day.  The expression is evaluated at most once per thread
+	 * and per suspend.
+	 */
+	public void getTargetTime(IDMContext context, final DataRequestMonitor<Long> rm) {
+		FrameSpySettings settings = FrameSpyPreferences.getSettings();
+		final String expression = settings.getTargetTimeExpression();
+		final long unit = settings.getTargetTimeUnit();
+		if (expression == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.NOT_SUPPORTED,
+					"No target time expression is set", null));
+			return;
+		}
+		final IMIExecutionDMContext execDmc = DMContexts.getAncestorOfType(context, IMIExecutionDMContext.class);
+		if (execDmc == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INVALID_HANDLE,
+					"Context does not belong to a thread", null));
+			return;
+		}
+
+		// Values obtained with other settings don't apply anymore
+		if (!expression.equals(fTargetTimeExpression) || unit != fTargetTimeUnit) {
+			fTargetTimeCache.clear();
+			fTargetTimeExpression = expression;
+			fTargetTimeUnit = unit;
+		}
+		Long cachedTime = fTargetTimeCache.get(execDmc);
+		if (cachedTime != null) {
+			rm.done(cachedTime);
+			return;
+		}
+
+		IMICommandControl controlService = getService(IMICommandControl.class);
+		if (controlService == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR,
+					"Cannot find command control service", null));
+			return;
+		}
+
+		controlService.queueCommand(
+				controlService.getCommandFactory().createMIDataEvaluateExpression(execDmc, expression),
+				new DataRequestMonitor<MIDataEvaluateExpressionInfo>(getExecutor(), rm) {
+			@Override
+			protected void handleSuccess() {
+				long time;
+				try {
+					time = Math.multiplyExact(Long.decode(getData().getValue().trim()), unit);
+				} catch (NumberFormatException | ArithmeticException e) {
+					rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.REQUEST_FAILED,
+							"Target time expression does not give a time in nanoseconds: " + getData().getValue(), e));
+					return;
+				}
+				// Don't cache a value obtained with older settings
+				if (expression.equals(fTargetTimeExpression) && unit == fTargetTimeUnit) {
+					fTargetTimeCache.put(execDmc, time);
+				}
+				rm.done(time);
+			}
+		});
+	}
+
+	/**
+	 * Returns a complete record of the top frame of the specified execution context.
+	 * Once the data of the top frame is known, its number of arguments is
+	 * only requested from GDB if it was never obtained for that location.
+	 */
+	public void getFrameSnapshot(IDMContext execContext, DataRequestMonitor<FrameRecord> rm) {
+		getFrameSnapshot(execContext, 0, rm);
+	}
+
+	/**
+	 * Same as {@link #getFrameSnapshot(IDMContext, DataRequestMonitor)} but also
+	 * gives the call path of the frame, up to the specified number of frames.
+	 * @param callPathDepth The maximum number of frames of the call path,
+	 *                      or 0 not to get the call path
+	 */
+	public void getFrameSnapshot(final IDMContext execContext, final int callPathDepth, final DataRequestMonitor<FrameRecord> rm) {
+		final IStack stackService = getService(IStack.class);
 		if (stackService == null) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR, 
+    				"Cannot find stack service", null));
+    		return;
+		}
+
+		// Take the timestamp as close as possible to the event
+		final long time = FrameSpyClock.now();
+
+		stackService.getTopFrame(execContext, new DataRequestMonitor<IFrameDMContext>(getExecutor(), rm) {
+			@Override
+			protected void handleSuccess() {
+				final IFrameDMContext frame = getData();
+				final IFrameDMData[] frameData = new IFrameDMData[1];
+				final int[] numArgs = new int[1];
+				final String[] callPath = new String[1];
+
+				CountingRequestMonitor crm = new CountingRequestMonitor(getExecutor(), rm) {
+					@Override
+					protected void handleSuccess() {
+						IFrameDMData data = frameData[0];
+						rm.done(new FrameRecord(
+								time,
+								data.getFunction(),
+								data.getFile(),
+								data.getLine(),
+								data.getAddress() == null ? null : data.getAddress().toHexAddressString(),
+								numArgs[0],
+								getSession().getId(),
+								getThreadId(execContext),
+								callPath[0]));
+					}
+				};
+				final IMIExecutionDMContext execDmc = DMContexts.getAncestorOfType(execContext, IMIExecutionDMContext.class);
+				final boolean withCallPath = callPathDepth > 0 && execDmc != null;
+				crm.setDoneCount(withCallPath ? 2 : 1);
+
+				// The stack service usually has the data of the top frame from the
+				// stop event already, and it tells which function's count to look up
+				stackService.getFrameData(frame, new DataRequestMonitor<IFrameDMData>(getExecutor(), crm) {
+					@Override
+					protected void handleSuccess() {
+						frameData[0] = getData();
+						getNumberArguments(frame, getData(), new DataRequestMonitor<Integer>(getExecutor(), crm) {
+							@Override
+							protected void handleSuccess() {
+								numArgs[0] = getData();
+								crm.done();
+							}
+						});
+					}
+				});
+
+				if (withCallPath) {
+					fCallPathTracker.getCallPath(stackService, execDmc, callPathDepth, new DataRequestMonitor<String>(getExecutor(), crm) {
+						@Override
+						protected void handleSuccess() {
+							callPath[0] = getData();
+							crm.done();
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns a record of the top frame of every thread of the suspended
+	 * process of the specified context.  With a {@link FrameSpyStackService},
+	 * this costs a single GDB command however many threads there are.
+	 */
+	public void getAllThreadsSnapshot(IDMContext context, final DataRequestMonitor<List<FrameRecord>> rm) {
+		IStack stackService = getService(IStack.class);
+		if (!(stackService instanceof FrameSpyStackService)) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.NOT_SUPPORTED, 
+    				"Stack service cannot give the frames of all threads at once", null));
+    		return;
+		}
+		IMIContainerDMContext container = DMContexts.getAncestorOfType(context, IMIContainerDMContext.class);
+		if (container == null) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INVALID_HANDLE, 
+    				"Context does not belong to a process", null));
+    		return;
+		}
+
+		final long time = FrameSpyClock.now();
+		((FrameSpyStackService)stackService).getAllTopFrames(container,
+				new DataRequestMonitor<List<FrameSpyStackService.ThreadTopFrame>>(getExecutor(), rm) {
+			@Override
+			protected void handleSuccess() {
+				List<FrameRecord> records = new ArrayList<>(getData().size());
+				for (FrameSpyStackService.ThreadTopFrame topFrame : getData()) {
+					IFrameDMData data = topFrame.getFrameData();
+					records.add(new FrameRecord(
+							time,
+							data.getFunction(),
+							data.getFile(),
+							data.getLine(),
+							data.getAddress() == null ? null : data.getAddress().toHexAddressString(),
+							topFrame.getNumArgs(),
+							getSession().getId(),
+							getThreadId(topFrame.getExecutionContext())));
+				}
+				rm.done(records);
+			}
+		});
+	}
+
+	/**
+	 * Starts periodically interrupting the process of the specified context to
+	 * sample the stacks of its threads.  See {@link SamplingProfiler}.
+	 */
+	public void startSampling(IDMContext context, int rate, int depth, double maxOverheadPercent, RequestMonitor rm) {
+		IMIContainerDMContext container = DMContexts.getAncestorOfType(context, IMIContainerDMContext.class);
+		if (container == null) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INVALID_HANDLE, 
+    				"Context does not belong to a process", null));
+    		return;
+		}
+		fSamplingProfiler.start(container, rate, depth, maxOverheadPercent);
+		rm.done();
+	}
+
+	public void stopSampling(RequestMonitor rm) {
+		fSamplingProfiler.stop();
+		rm.done();
+	}
+
+	public SamplingProfiler getSamplingProfiler() {
+		return fSamplingProfiler;
+	}
+
+	/**
+	 * Inserts a dprintf that logs a record each time the specified location
+	 * is hit, without the target being suspended for the spy.  See {@link DprintfSpy}.
+	 * @param location A GDB location, such as "foo.c:42" or "main"
+	 * @param rm Given the id of the new spy location
+	 */
+	public void addSpyLocation(IDMContext context, String location, DataRequestMonitor<Integer> rm) {
+		fDprintfSpy.addLocation(context, location, rm);
+	}
+
+	/**
+	 * Deletes all the dprintfs inserted by {@link #addSpyLocation}.
+	 */
+	public void removeSpyLocations(RequestMonitor rm) {
+		fDprintfSpy.removeLocations(rm);
+	}
+
+	public DprintfSpy getDprintfSpy() {
+		return fDprintfSpy;
+	}
+
+	/**
+	 * Starts recording the value of the specified expression each time a
+	 * frame is logged, when it changed.  See {@link WatchSpy}.
+	 * @param context The context in which to record the current value
+	 */
+	public void addWatchExpression(IDMContext context, String expression, RequestMonitor rm) {
+		fWatchSpy.addExpression(context, expression, rm);
+	}
+
+	/**
+	 * Stops recording the expressions added by {@link #addWatchExpression}.
+	 */
+	public void removeWatchExpressions(RequestMonitor rm) {
+		fWatchSpy.removeExpressions(rm);
+	}
+
+	public WatchSpy getWatchSpy() {
+		return fWatchSpy;
+	}
+
+	/**
+	 * Returns the object that keeps the previous stack of each thread
+	 * for the call path mode of {@link #getFrameSnapshot}.
+	 */
+	public CallPathTracker getCallPathTracker() {
+		return fCallPathTracker;
+	}
+
+	public static String getThreadId(IDMContext context) {
+		IMIExecutionDMContext threadContext = DMContexts.getAncestorOfType(context, IMIExecutionDMContext.class);
+		return threadContext == null ? null : String.valueOf(threadContext.getThreadId());
+	}
+
+	private static String getArgCountKey(String function, BigInteger address) {
+		return function + '@' + address.toString(16);
+	}
+
+	/**
+	 * Returns the number of arguments of the specified function, if it was
+	 * already found for a frame at the specified address, null otherwise.
+	 * @param address The address in hexadecimal, with a "0x" prefix
+	 */
+	public Integer getCachedNumberArguments(String function, String address) {
+		if (address == null || !address.startsWith("0x")) { //$NON-NLS-1$
+			return null;
+		}
+		try {
+			return fArgCountCache.get(getArgCountKey(function, new BigInteger(address.substring(2), 16)));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the number of arguments of the function of the specified frame.
+	 * @param data The data of the frame, which gives its function and address
+	 */
+	public void getNumberArguments(final IFrameDMContext frame, IFrameDMData data, DataRequestMonitor<Integer> rm) {
+		final String key = data.getAddress() == null ? null : getArgCountKey(data.getFunction(), data.getAddress().getValue());
+		Integer cachedCount = key == null ? null : fArgCountCache.get(key);
+		if (cachedCount != null) {
+			rm.done(cachedCount);
+			return;
+		}
+
+		IMICommandControl controlService = getService(IMICommandControl.class);
+		if (controlService == null) {
     		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR, 
     				"Cannot find command control service", null));
     		return;
 		}
-		
-		stackService.getArguments(
-				frame, 
-				new DataRequestMonitor<IVariableDMContext[]>(getExecutor(), rm) {
+
+		IMIExecutionDMContext execDmc = DMContexts.getAncestorOfType(frame, IMIExecutionDMContext.class);
+		if (execDmc == null) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INVALID_HANDLE, 
+    				"Frame does not belong to a thread", null));
+    		return;
+		}
+
+		// We only need the count, so don't ask GDB for any value, and
+		// limit the reply to the one frame we are interested in.
+		// This avoids building the variable contexts of IStack.getArguments()
+		controlService.queueCommand(
+				controlService.getCommandFactory().createMIStackListArguments(execDmc, false, frame.getLevel(), frame.getLevel()),
+				new DataRequestMonitor<MIStackListArgumentsInfo>(getExecutor(), rm) {
 			@Override
 			protected void handleSuccess() {
-				rm.done(getData().length);
+				int count = 0;
+				MIFrame[] frames = getData().getMIFrames();
+				if (frames != null && frames.length > 0) {
+					MIArg[] args = frames[0].getArgs();
+					count = args == null ? 0 : args.length;
+				}
+				if (key != null) {
+					fArgCountCache.put(key, count);
+				}
+				rm.done(count);
 			}
 		});
 	}
 	
 	public void setVerbose(boolean enabled, RequestMonitor rm) {
-		ICommandControlService controlService = getServicesTracker().getService(ICommandControlService.class);
+		ICommandControlService controlService = getService(ICommandControlService.class);
 		if (controlService == null) {
     		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR, 
     				"Cannot find command control service", null));
@@ -102,4 +508,149 @@ public class FrameSpyService extends AbstractDsfService {
 				new MIGDBSet(controlService.getContext(), new String[] { "verbose", enabledString }),
 				new DataRequestMonitor<MIInfo>(getExecutor(), rm));
 	}
+
+	/**
+	 * Applies the GDB settings of the specified launch configuration.
+	 * @see #setGdbSettings(Map, DataRequestMonitor)
+	 */
+	public void setGdbSettings(ILaunchConfiguration config, DataRequestMonitor<Map<String, IStatus>> rm) {
+		Map<String, String> settings;
+		try {
+			settings = config.getAttribute(IFrameSpyLaunchConstants.ATTR_GDB_SETTINGS, Collections.<String, String>emptyMap());
+		} catch (CoreException e) {
+			rm.done(e.getStatus());
+			return;
+		}
+		setGdbSettings(settings, rm);
+	}
+
+	/**
+	 * Sends a "set" command to GDB for each of the specified settings.  All
+	 * commands are queued at once instead of waiting for each other's reply.
+	 * A setting that fails does not prevent the others from being applied.
+	 *
+	 * @param settings The value of each setting, by setting name
+	 * @param rm Completed with the result of each setting, by setting name,
+	 *           once GDB has replied to all of them
+	 */
+	public void setGdbSettings(Map<String, String> settings, final DataRequestMonitor<Map<String, IStatus>> rm) {
+		ICommandControlService controlService = getService(ICommandControlService.class);
+		if (controlService == null) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR, 
+    				"Cannot find command control service", null));
+    		return;
+		}
+
+		// Keep the results in a predictable order
+		final Map<String, IStatus> results = new LinkedHashMap<>();
+		Map<String, String> sortedSettings = new TreeMap<>(settings);
+		final CountingRequestMonitor countingRm = new CountingRequestMonitor(getExecutor(), rm) {
+			@Override
+			protected void handleCompleted() {
+				rm.done(results);
+			}
+		};
+		countingRm.setDoneCount(sortedSettings.size());
+
+		for (Map.Entry<String, String> setting : sortedSettings.entrySet()) {
+			final String name = setting.getKey();
+			results.put(name, null);
+
+			// A setting such as "print elements" is made of several words,
+			// which must not be quoted as a single parameter
+			List<String> params = new ArrayList<>(Arrays.asList(name.trim().split("\\s+")));
+			params.add(setting.getValue());
+			controlService.queueCommand(
+					new MIGDBSet(controlService.getContext(), params.toArray(new String[params.size()])),
+					new DataRequestMonitor<MIInfo>(getExecutor(), null) {
+						@Override
+						protected void handleCompleted() {
+							results.put(name, getStatus());
+							countingRm.done();
+						}
+					});
+		}
+	}
+
+	/**
+	 * Turns on verbose mode and captures GDB's output until
+	 * {@link #stopVerboseCapture} is called.
+	 * @param phase The name of the phase being captured, used in its timing summary
+	 */
+	public void startVerboseCapture(String phase, RequestMonitor rm) {
+		ICommandControlService controlService = getService(ICommandControlService.class);
+		if (controlService == null) {
+    		rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR, 
+    				"Cannot find command control service", null));
+    		return;
+		}
+
+		fVerboseCapture.startPhase(phase);
+		controlService.addEventListener(fVerboseCapture);
+		setVerbose(true, rm);
+	}
+
+	/**
+	 * Turns off verbose mode and returns the timing summary of the current phase.
+	 */
+	public void stopVerboseCapture(final DataRequestMonitor<List<String>> rm) {
+		setVerbose(false, new RequestMonitor(getExecutor(), rm) {
+			@Override
+			protected void handleCompleted() {
+				// The reply to "set verbose off" is the last output of the phase
+				ICommandControlService controlService = getService(ICommandControlService.class);
+				if (controlService != null) {
+					controlService.removeEventListener(fVerboseCapture);
+				}
+				rm.setData(fVerboseCapture.endPhase());
+				rm.setStatus(getStatus());
+				rm.done();
+			}
+		});
+	}
+
+	public VerboseCapture getVerboseCapture() {
+		return fVerboseCapture;
+	}
+
+	/**
+	 * Returns the timing of every step of the launch of our session, or
+	 * null if the launch is not complete yet.
+	 */
+	public LaunchTimeline getLaunchTimeline() {
+		return fLaunchTimeline;
+	}
+
+	void setLaunchTimeline(LaunchTimeline timeline) {
+		fLaunchTimeline = timeline;
+	}
+
+	private static void invalidate(Iterator<? extends IDMContext> contexts, IDMContext context) {
+		while (contexts.hasNext()) {
+			if (DMContexts.isAncestorOf(contexts.next(), context)) {
+				contexts.remove();
+			}
+		}
+	}
+
+	@DsfServiceEventHandler
+	public void eventDispatched(ISuspendedDMEvent e) {
+		invalidate(fTargetTimeCache.keySet().iterator(), e.getDMContext());
+		fSamplingProfiler.suspended(e);
+	}
+
+	@DsfServiceEventHandler
+	public void eventDispatched(IResumedDMEvent e) {
+		invalidate(fTargetTimeCache.keySet().iterator(), e.getDMContext());
+	}
+
+	@DsfServiceEventHandler
+	public void eventDispatched(IExitedDMEvent e) {
+		fCallPathTracker.removeContexts(e.getDMContext());
+		if (e.getDMContext() instanceof IMIContainerDMContext) {
+			fSamplingProfiler.stop();
+			// The next process can have other code at the same addresses
+			fArgCountCache.clear();
+		}
+	}
 }
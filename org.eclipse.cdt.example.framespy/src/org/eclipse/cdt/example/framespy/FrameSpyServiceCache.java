@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.cdt.dsf.service.DsfServicesTracker;
+import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.dsf.service.DsfSession.SessionEndedListener;
+import org.eclipse.cdt.dsf.service.IDsfService;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+
+/**
+ * This singleton class keeps the DSF services of each session once they
+ * have been looked up, so that code running on every DSF event does not
+ * create a services tracker and query the OSGi registry each time.
+ *
+ * The services of a session are forgotten whenever one of them
+ * unregisters, and the whole session entry when the session ends.
+ */
+public class FrameSpyServiceCache implements SessionEndedListener, ServiceListener {
+
+	private static final FrameSpyServiceCache fInstance = new FrameSpyServiceCache();
+
+	private static class SessionServices {
+		final ConcurrentMap<Class<?>, Object> fServices = new ConcurrentHashMap<>();
+		// Only used on a cache miss, guarded by this
+		DsfServicesTracker fTracker;
+		boolean fDisposed;
+	}
+
+	private final ConcurrentMap<String, SessionServices> fSessions = new ConcurrentHashMap<>();
+
+	// Private constructor for singleton
+	private FrameSpyServiceCache() {
+	}
+
+	public static void initialize() {
+		DsfSession.addSessionEndedListener(fInstance);
+		try {
+			Activator.getBundleContext().addServiceListener(fInstance, "(" + IDsfService.PROP_SESSION_ID + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (InvalidSyntaxException e) {
+			Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot listen to DSF service changes", e));
+		}
+	}
+
+	public static void dispose() {
+		DsfSession.removeSessionEndedListener(fInstance);
+		BundleContext context = Activator.getBundleContext();
+		if (context != null) {
+			context.removeServiceListener(fInstance);
+		}
+		for (String sessionId : fInstance.fSessions.keySet()) {
+			fInstance.removeSession(sessionId);
+		}
+	}
+
+	/**
+	 * Returns the specified service of the specified session, or null if
+	 * it is not available.  Should be called on the session's executor.
+	 */
+	public static <V> V getService(String sessionId, Class<V> serviceClass) {
+		return fInstance.doGetService(sessionId, serviceClass);
+	}
+
+	private <V> V doGetService(String sessionId, Class<V> serviceClass) {
+		SessionServices services = fSessions.get(sessionId);
+		if (services == null) {
+			if (!DsfSession.isSessionActive(sessionId)) {
+				return null;
+			}
+			SessionServices newServices = new SessionServices();
+			services = fSessions.putIfAbsent(sessionId, newServices);
+			if (services == null) {
+				services = newServices;
+			}
+		}
+
+		Object service = services.fServices.get(serviceClass);
+		if (service != null) {
+			return serviceClass.cast(service);
+		}
+
+		synchronized (services) {
+			if (services.fDisposed) {
+				return null;
+			}
+			if (services.fTracker == null) {
+				services.fTracker = new DsfServicesTracker(Activator.getBundleContext(), sessionId);
+			}
+			V newService = services.fTracker.getService(serviceClass);
+			if (newService != null) {
+				services.fServices.put(serviceClass, newService);
+			}
+			return newService;
+		}
+	}
+
+	private void removeSession(String sessionId) {
+		SessionServices services = fSessions.remove(sessionId);
+		if (services != null) {
+			synchronized (services) {
+				services.fDisposed = true;
+				services.fServices.clear();
+				if (services.fTracker != null) {
+					services.fTracker.dispose();
+					services.fTracker = null;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void sessionEnded(DsfSession session) {
+		removeSession(session.getId());
+	}
+
+	@Override
+	public void serviceChanged(ServiceEvent event) {
+		if (event.getType() == ServiceEvent.UNREGISTERING) {
+			Object sessionId = event.getServiceReference().getProperty(IDsfService.PROP_SESSION_ID);
+			SessionServices services = sessionId == null ? null : fSessions.get(sessionId);
+			if (services != null) {
+				// A service can be registered under several classes;
+				// simply look them all up again
+				services.fServices.clear();
+			}
+		}
+	}
+}
@@ -9,39 +9,153 @@
 
 package org.eclipse.cdt.example.framespy;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cdt.dsf.concurrent.ImmediateExecutor;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandControlService;
 import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.dsf.service.DsfSession.SessionEndedListener;
 import org.eclipse.cdt.dsf.service.DsfSession.SessionStartedListener;
 
 /**
- * This singleton class that starts FrameSpyServices 
- * as DSF sessions are created.  The class does not
- * worry about shutting down the service as it counts
- * on DSF-GDB to do it automatically.
+ * This singleton class starts the FrameSpyService of
+ * a DSF session the first time it is needed, so that
+ * sessions where the spy is never used don't pay for it.
+ * It also lets the {@link FrameSpyEngine} know about
+ * new sessions.  The class does not worry about
+ * shutting down the services as it counts on DSF-GDB
+ * to do it automatically; for that reason, no service
+ * is started once the session is shutting down.
  */
-public class FrameSpyServiceManager implements SessionStartedListener {
+public class FrameSpyServiceManager implements SessionStartedListener, SessionEndedListener {
 
 	private static final FrameSpyServiceManager fInstance = new FrameSpyServiceManager();
-	
+
+	// The services started so far, by session id.  The service of a session
+	// is only created on the executor of that session.
+	private final ConcurrentMap<String, FrameSpyService> fServices = new ConcurrentHashMap<>();
+	private final AtomicInteger fSessionCount = new AtomicInteger();
+	private final AtomicInteger fStartedCount = new AtomicInteger();
+	private final AtomicLong fTotalStartupTime = new AtomicLong();
+
 	// Private constructor for singleton
 	private FrameSpyServiceManager() {
 	}
 
 	public static void initialize() {
 		DsfSession.addSessionStartedListener(fInstance);
+		DsfSession.addSessionEndedListener(fInstance);
 	}
 
 	public static void dispose() {
 		DsfSession.removeSessionStartedListener(fInstance);
+		DsfSession.removeSessionEndedListener(fInstance);
+		fInstance.fServices.clear();
+	}
+
+	/**
+	 * Returns the FrameSpyService of the specified session, starting it if
+	 * needed.  The service can be used right away, although it only registers
+	 * with OSGi a little later.  Must be called on the executor of the session.
+	 *
+	 * @return The service, or null if the session is not active or is shutting down
+	 */
+	public static FrameSpyService getService(String sessionId) {
+		return fInstance.doGetService(sessionId);
+	}
+
+	/**
+	 * Returns the FrameSpyService of the specified session, or null if it
+	 * was never started.  Can be called from any thread.
+	 */
+	public static FrameSpyService getStartedService(String sessionId) {
+		return fInstance.fServices.get(sessionId);
+	}
+
+	/**
+	 * Returns the specified DSF service of the specified session, or null if
+	 * it is not registered, see {@link FrameSpyServiceCache}.  Should be
+	 * called on the executor of the session.
+	 */
+	public static <V> V getSessionService(String sessionId, Class<V> serviceClass) {
+		return FrameSpyServiceCache.getService(sessionId, serviceClass);
+	}
+
+	/**
+	 * Returns the number of DSF sessions started since the plug-in was started.
+	 */
+	public static int getSessionCount() {
+		return fInstance.fSessionCount.get();
+	}
+
+	/**
+	 * Returns the number of sessions for which the spy service was started.
+	 */
+	public static int getStartedServiceCount() {
+		return fInstance.fStartedCount.get();
+	}
+
+	/**
+	 * Returns the total time spent starting spy services, in nanoseconds.
+	 */
+	public static long getTotalStartupTime() {
+		return fInstance.fTotalStartupTime.get();
+	}
+
+	private FrameSpyService doGetService(final String sessionId) {
+		FrameSpyService service = fServices.get(sessionId);
+		if (service != null) {
+			return service;
+		}
+		final DsfSession session = DsfSession.getSession(sessionId);
+		if (session == null || !DsfSession.isSessionActive(sessionId)) {
+			return null;
+		}
+		assert session.getExecutor().isInExecutorThread();
+		// The session stays active for a while after DSF-GDB shut its
+		// services down; a service started then would never be shut down
+		if (getSessionService(sessionId, ICommandControlService.class) == null) {
+			return null;
+		}
+
+		final long start = System.nanoTime();
+		final FrameSpyService newService = new FrameSpyService(session);
+		fServices.put(sessionId, newService);
+		newService.initialize(new RequestMonitor(session.getExecutor(), null) {
+			@Override
+			protected void handleCompleted() {
+				if (!isSuccess()) {
+					fServices.remove(sessionId, newService);
+					Activator.log(getStatus());
+					return;
+				}
+				// Only counted: logging every session would fill the log
+				fStartedCount.incrementAndGet();
+				fTotalStartupTime.addAndGet(System.nanoTime() - start);
+			}
+		});
+		return newService;
 	}
 
 	@Override
 	public void sessionStarted(DsfSession session) {
-		FrameSpyService service = new FrameSpyService(session);
-		service.initialize(new RequestMonitor(session.getExecutor(), null));
-		
-		// No real need to store the service reference ourselves.
-		// When the service registers, a reference for it will be kept
-		// by DSF
-	}
-}
\ No newline at end of file
+		fSessionCount.incrementAndGet();
+		// Only listens to the session if the spy is enabled; the
+		// service is started when the first event needs it
+		FrameSpyEngine.sessionStarted(session);
+	}
+
+	@Override
+	public void sessionEnded(DsfSession session) {
+		// DSF-GDB shut the service down with the others, unless it was
+		// started while the shutdown was already in progress
+		FrameSpyService service = fServices.remove(session.getId());
+		if (service != null && !service.isShutDown()) {
+			service.shutdown(new RequestMonitor(ImmediateExecutor.getInstance(), null));
+		}
+	}
+}
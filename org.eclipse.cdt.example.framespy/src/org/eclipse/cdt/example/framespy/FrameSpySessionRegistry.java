@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IExecutionDMContext;
+import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.dsf.service.DsfSession.SessionEndedListener;
+
+/**
+ * Keeps track of the DSF sessions and execution contexts the Frame Spy
+ * is following.  Sessions are forgotten automatically when they end.
+ *
+ * Each execution context is given its own token bucket so that a thread
+ * that suspends very often, or hundreds of threads suspending at once,
+ * cannot flood the spy.  Events beyond the allowed rate are only counted,
+ * so that they can be summarized instead of each costing GDB queries.
+ *
+ * This class is thread-safe.
+ */
+public class FrameSpySessionRegistry implements SessionEndedListener {
+
+	public static final int DEFAULT_RECORDS_PER_SECOND = 50;
+
+	/**
+	 * Value returned by {@link #acquire(IExecutionDMContext)} when
+	 * the event must be suppressed.
+	 */
+	public static final long SUPPRESSED = -1;
+
+	private final ConcurrentMap<String, DsfSession> fSessions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<IExecutionDMContext, TokenBucket> fBuckets = new ConcurrentHashMap<>();
+	private final AtomicLong fTotalSuppressed = new AtomicLong();
+	private volatile int fRecordsPerSecond;
+
+	public FrameSpySessionRegistry(int recordsPerSecond) {
+		fRecordsPerSecond = recordsPerSecond;
+		DsfSession.addSessionEndedListener(this);
+	}
+
+	public void dispose() {
+		DsfSession.removeSessionEndedListener(this);
+		fSessions.clear();
+		fBuckets.clear();
+	}
+
+	/**
+	 * Adds a session to the registry.
+	 * @return true if the session was not already registered
+	 */
+	public boolean addSession(DsfSession session) {
+		return fSessions.putIfAbsent(session.getId(), session) == null;
+	}
+
+	public Collection<DsfSession> getSessions() {
+		return new ArrayList<>(fSessions.values());
+	}
+
+	/**
+	 * Removes all sessions and execution contexts from the registry.
+	 * @return the sessions that were registered
+	 */
+	public Collection<DsfSession> clear() {
+		Collection<DsfSession> sessions = getSessions();
+		fSessions.clear();
+		fBuckets.clear();
+		return sessions;
+	}
+
+	@Override
+	public void sessionEnded(DsfSession session) {
+		fSessions.remove(session.getId());
+		Iterator<IExecutionDMContext> contexts = fBuckets.keySet().iterator();
+		while (contexts.hasNext()) {
+			if (session.getId().equals(contexts.next().getSessionId())) {
+				contexts.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the execution contexts that are, or are children of, the specified context.
+	 * Should be called when threads or processes exit.
+	 * @return the number of events suppressed since the last permitted one,
+	 *         for each removed context that has any, since no later event of
+	 *         that context will report them
+	 */
+	public Map<IExecutionDMContext, Long> removeContexts(IDMContext context) {
+		Map<IExecutionDMContext, Long> pending = new HashMap<>();
+		Iterator<Map.Entry<IExecutionDMContext, TokenBucket>> entries = fBuckets.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<IExecutionDMContext, TokenBucket> entry = entries.next();
+			if (DMContexts.isAncestorOf(entry.getKey(), context)) {
+				entries.remove();
+				long suppressed = entry.getValue().takeSuppressed();
+				if (suppressed > 0) {
+					pending.put(entry.getKey(), suppressed);
+				}
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Sets the maximum number of records per second allowed for each execution context.
+	 * Applies right away to the contexts already seen, whose suppressed
+	 * event counts are kept.
+	 */
+	public void setRecordsPerSecond(int recordsPerSecond) {
+		fRecordsPerSecond = recordsPerSecond;
+		long now = System.nanoTime();
+		for (TokenBucket bucket : fBuckets.values()) {
+			bucket.setRate(recordsPerSecond, now);
+		}
+	}
+
+	public int getRecordsPerSecond() {
+		return fRecordsPerSecond;
+	}
+
+	/**
+	 * Asks for permission to produce a record for an event of the specified context.
+	 *
+	 * @return {@link #SUPPRESSED} if the event must be ignored, otherwise the
+	 *         number of events of this context that were suppressed since
+	 *         the last permitted one
+	 */
+	public long acquire(IExecutionDMContext context) {
+		TokenBucket bucket = fBuckets.get(context);
+		if (bucket == null) {
+			TokenBucket newBucket = new TokenBucket(fRecordsPerSecond);
+			bucket = fBuckets.putIfAbsent(context, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+			}
+		}
+
+		long result = bucket.acquire(System.nanoTime());
+		if (result == SUPPRESSED) {
+			fTotalSuppressed.incrementAndGet();
+		}
+		return result;
+	}
+
+	public long getTotalSuppressed() {
+		return fTotalSuppressed.get();
+	}
+
+	public int getContextCount() {
+		return fBuckets.size();
+	}
+
+	private static class TokenBucket {
+		private static final long NANOS_PER_SECOND = 1000000000L;
+
+		private int fCapacity;
+		private long fNanosPerToken;
+		private double fTokens;
+		private long fLastRefill;
+		private long fSuppressed;
+
+		TokenBucket(int recordsPerSecond) {
+			fLastRefill = System.nanoTime();
+			setRate(recordsPerSecond, fLastRefill);
+			fTokens = fCapacity;
+		}
+
+		/**
+		 * Changes the rate.  The tokens earned so far at the previous rate
+		 * are kept, up to the new capacity.
+		 */
+		synchronized void setRate(int recordsPerSecond, long now) {
+			refill(now);
+			// A rate of zero or less means no limit
+			fCapacity = recordsPerSecond > 0 ? recordsPerSecond : Integer.MAX_VALUE;
+			fNanosPerToken = recordsPerSecond > 0 ? NANOS_PER_SECOND / recordsPerSecond : 0;
+			fTokens = fNanosPerToken > 0 ? Math.min(fCapacity, fTokens) : fCapacity;
+		}
+
+		private void refill(long now) {
+			if (fNanosPerToken > 0) {
+				fTokens = Math.min(fCapacity, fTokens + (double)(now - fLastRefill) / fNanosPerToken);
+			}
+			fLastRefill = now;
+		}
+
+		synchronized long acquire(long now) {
+			if (fNanosPerToken > 0) {
+				refill(now);
+				if (fTokens < 1) {
+					fSuppressed++;
+					return SUPPRESSED;
+				}
+				fTokens--;
+			}
+			return takeSuppressed();
+		}
+
+		synchronized long takeSuppressed() {
+			long suppressed = fSuppressed;
+			fSuppressed = 0;
+			return suppressed;
+		}
+	}
+}
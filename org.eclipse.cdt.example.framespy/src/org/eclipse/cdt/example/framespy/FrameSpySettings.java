@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * An immutable snapshot of the configuration of the Frame Spy.  Use the
+ * <code>with</code> methods to obtain a modified copy, and
+ * {@link FrameSpyPreferences} to get and change the current settings.
+ */
+public class FrameSpySettings {
+
+	public static final FrameSpySettings DEFAULT = new FrameSpySettings(
+			false,
+			FrameSpySessionRegistry.DEFAULT_RECORDS_PER_SECOND,
+			100000,
+			20*1024*1024,
+			FrameRecordBatcher.DEFAULT_FLUSH_INTERVAL,
+			0,
+			false,
+			SamplingProfiler.DEFAULT_RATE,
+			SamplingProfiler.DEFAULT_DEPTH,
+			SamplingProfiler.DEFAULT_MAX_OVERHEAD_PERCENT,
+			null,
+			1);
+
+	private final boolean fEnabled;
+	private final int fRecordsPerSecond;
+	private final int fMaxLogRecords;
+	private final long fMaxLogSize;
+	private final int fFlushInterval;
+	private final int fCallPathDepth;
+	private final boolean fAllThreads;
+	private final int fSamplingRate;
+	private final int fSamplingDepth;
+	private final double fSamplingMaxOverhead;
+	private final String fTargetTimeExpression;
+	private final long fTargetTimeUnit;
+
+	public FrameSpySettings(boolean enabled, int recordsPerSecond, int maxLogRecords, long maxLogSize,
+			int flushInterval, int callPathDepth, boolean allThreads, int samplingRate, int samplingDepth, double samplingMaxOverhead,
+			String targetTimeExpression, long targetTimeUnit) {
+		fEnabled = enabled;
+		fRecordsPerSecond = recordsPerSecond;
+		fMaxLogRecords = maxLogRecords;
+		fMaxLogSize = maxLogSize;
+		fFlushInterval = flushInterval;
+		fCallPathDepth = callPathDepth;
+		fAllThreads = allThreads;
+		fSamplingRate = samplingRate;
+		fSamplingDepth = samplingDepth;
+		fSamplingMaxOverhead = samplingMaxOverhead;
+		fTargetTimeExpression = targetTimeExpression;
+		fTargetTimeUnit = targetTimeUnit;
+	}
+
+	/**
+	 * Returns whether the spy logs the suspend events of the debug sessions.
+	 */
+	public boolean isEnabled() {
+		return fEnabled;
+	}
+
+	/**
+	 * Returns the maximum number of records logged per second for each thread.
+	 */
+	public int getRecordsPerSecond() {
+		return fRecordsPerSecond;
+	}
+
+	public int getMaxLogRecords() {
+		return fMaxLogRecords;
+	}
+
+	/**
+	 * Returns the maximum estimated size of the log, in bytes.
+	 */
+	public long getMaxLogSize() {
+		return fMaxLogSize;
+	}
+
+	/**
+	 * Returns the minimum time between two updates of the log, in milliseconds.
+	 */
+	public int getFlushInterval() {
+		return fFlushInterval;
+	}
+
+	/**
+	 * Returns the maximum number of frames of the call path of each record,
+	 * 0 meaning that only the top frame is logged.
+	 */
+	public int getCallPathDepth() {
+		return fCallPathDepth;
+	}
+
+	/**
+	 * Returns whether the spy logs the top frame of every thread when a
+	 * process stops, instead of only the thread that caused the stop.
+	 */
+	public boolean isAllThreads() {
+		return fAllThreads;
+	}
+
+	public int getSamplingRate() {
+		return fSamplingRate;
+	}
+
+	/**
+	 * Returns the number of frames the sampling profiler records for each
+	 * thread.  A depth of 1 costs a single command per sample; any greater
+	 * depth costs one more -stack-list-frames per thread, whose reply grows
+	 * with the depth, up to {@link SamplingProfiler#MAX_DEPTH}.
+	 */
+	public int getSamplingDepth() {
+		return fSamplingDepth;
+	}
+
+	/**
+	 * Returns the maximum percentage of time the sampling profiler may keep the target stopped.
+	 */
+	public double getSamplingMaxOverhead() {
+		return fSamplingMaxOverhead;
+	}
+
+	/**
+	 * Returns the expression evaluated on the target to obtain its time,
+	 * for example a global counter or a call to a clock function, or null
+	 * if the target time is not available.
+	 */
+	public String getTargetTimeExpression() {
+		return fTargetTimeExpression;
+	}
+
+	/**
+	 * Returns the number of nanoseconds in one unit of the value of the
+	 * target time expression, for example 1000 for a microsecond counter.
+	 */
+	public long getTargetTimeUnit() {
+		return fTargetTimeUnit;
+	}
+
+	public FrameSpySettings withEnabled(boolean enabled) {
+		return new FrameSpySettings(enabled, fRecordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				fFlushInterval, fCallPathDepth, fAllThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withRecordsPerSecond(int recordsPerSecond) {
+		return new FrameSpySettings(fEnabled, recordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				fFlushInterval, fCallPathDepth, fAllThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withLogLimits(int maxLogRecords, long maxLogSize) {
+		return new FrameSpySettings(fEnabled, fRecordsPerSecond, maxLogRecords, maxLogSize,
+				fFlushInterval, fCallPathDepth, fAllThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withFlushInterval(int flushInterval) {
+		return new FrameSpySettings(fEnabled, fRecordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				flushInterval, fCallPathDepth, fAllThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withCallPathDepth(int callPathDepth) {
+		return new FrameSpySettings(fEnabled, fRecordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				fFlushInterval, Math.max(0, callPathDepth), fAllThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withAllThreads(boolean allThreads) {
+		return new FrameSpySettings(fEnabled, fRecordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				fFlushInterval, fCallPathDepth, allThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withSampling(int rate, int depth, double maxOverhead) {
+		return new FrameSpySettings(fEnabled, fRecordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				fFlushInterval, fCallPathDepth, fAllThreads, rate,
+				Math.max(1, Math.min(depth, SamplingProfiler.MAX_DEPTH)), maxOverhead,
+				fTargetTimeExpression, fTargetTimeUnit);
+	}
+
+	public FrameSpySettings withTargetTime(String expression, long unit) {
+		return new FrameSpySettings(fEnabled, fRecordsPerSecond, fMaxLogRecords, fMaxLogSize,
+				fFlushInterval, fCallPathDepth, fAllThreads, fSamplingRate, fSamplingDepth, fSamplingMaxOverhead,
+				expression == null || expression.trim().isEmpty() ? null : expression.trim(), Math.max(1, unit));
+	}
+}
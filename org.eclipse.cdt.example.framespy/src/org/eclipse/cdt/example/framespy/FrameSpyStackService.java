@@ -9,59 +9,322 @@
 
 package org.eclipse.cdt.example.framespy;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import org.eclipse.cdt.core.IAddress;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IProcesses.IProcessDMContext;
+import org.eclipse.cdt.dsf.debug.service.IProcesses.IThreadDMContext;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.IResumedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
 import org.eclipse.cdt.dsf.gdb.service.extensions.GDBStack_HEAD;
+import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
+import org.eclipse.cdt.dsf.mi.service.IMIContainerDMContext;
+import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
+import org.eclipse.cdt.dsf.mi.service.IMIProcesses;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIArg;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIFrame;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIThread;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIThreadInfoInfo;
+import org.eclipse.cdt.dsf.service.DsfServiceEventHandler;
 import org.eclipse.cdt.dsf.service.DsfSession;
+import org.eclipse.cdt.utils.Addr32;
+import org.eclipse.cdt.utils.Addr64;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 
 public class FrameSpyStackService extends GDBStack_HEAD {
+
+	/**
+	 * The top frame of a thread, as given for all threads at once by -thread-info.
+	 */
+	public static class ThreadTopFrame {
+		private final IMIExecutionDMContext fExecutionContext;
+		private final IFrameDMContext fFrame;
+		private final IFrameDMData fFrameData;
+		private final int fNumArgs;
+
+		ThreadTopFrame(IMIExecutionDMContext execDmc, IFrameDMContext frame, IFrameDMData frameData, int numArgs) {
+			fExecutionContext = execDmc;
+			fFrame = frame;
+			fFrameData = frameData;
+			fNumArgs = numArgs;
+		}
+
+		public IMIExecutionDMContext getExecutionContext() {
+			return fExecutionContext;
+		}
+
+		public IFrameDMContext getFrame() {
+			return fFrame;
+		}
+
+		public IFrameDMData getFrameData() {
+			return fFrameData;
+		}
+
+		public int getNumArgs() {
+			return fNumArgs;
+		}
+	}
+
+	// The wrapped frame data, valid until the next suspend or resume of
+	// the frame's execution context
+	private final FrameDataCache fFrameDataCache;
+	// The top frames of all threads of each process, valid for the current suspend
+	private final Map<IMIContainerDMContext, List<ThreadTopFrame>> fTopFrames = new HashMap<>();
+	// Requests waiting for the reply to a -thread-info already sent
+	private final Map<IMIContainerDMContext, List<DataRequestMonitor<List<ThreadTopFrame>>>> fPendingTopFrames = new HashMap<>();
+	// Incremented on every invalidation, so that a reply to a -thread-info
+	// sent before the target resumed is not cached
+	private int fTopFramesGeneration;
+
 	public FrameSpyStackService(DsfSession session) {
 		super(session);
+		fFrameDataCache = new FrameDataCache(getExecutor()) {
+			@Override
+			protected void fetchFrameData(IFrameDMContext frameDmc, DataRequestMonitor<IFrameDMData> rm) {
+				FrameSpyStackService.super.getFrameData(frameDmc, new DataRequestMonitor<IFrameDMData>(getExecutor(), rm) {
+					@Override
+					protected void handleSuccess() {
+						rm.done(wrapFrameData(getData()));
+					}
+				});
+			}
+		};
 	}
 	
 	@Override
 	public void getFrameData(IFrameDMContext frameDmc, DataRequestMonitor<IFrameDMData> rm) {
-		super.getFrameData(frameDmc, new DataRequestMonitor<IFrameDMData>(getExecutor(), rm) {
+		fFrameDataCache.getFrameData(frameDmc, rm);
+	}
+
+	/**
+	 * Returns the top frame of every thread of the specified suspended process,
+	 * using a single -thread-info command instead of one command per thread.
+	 * The frame data obtained is also cached for {@link #getFrameData}, so
+	 * that asking for the top frame of any of these threads afterwards does
+	 * not reach GDB.
+	 */
+	public void getAllTopFrames(final IMIContainerDMContext container, DataRequestMonitor<List<ThreadTopFrame>> rm) {
+		List<ThreadTopFrame> cachedFrames = fTopFrames.get(container);
+		if (cachedFrames != null) {
+			rm.done(cachedFrames);
+			return;
+		}
+
+		// Coalesce with a request already sent for this process
+		List<DataRequestMonitor<List<ThreadTopFrame>>> waiting = fPendingTopFrames.get(container);
+		if (waiting != null) {
+			waiting.add(rm);
+			return;
+		}
+
+		final IMICommandControl control = getServicesTracker().getService(IMICommandControl.class);
+		final IMIProcesses processes = getServicesTracker().getService(IMIProcesses.class);
+		if (control == null || processes == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR,
+					"Cannot find command control or processes service", null));
+			return;
+		}
+
+		final List<DataRequestMonitor<List<ThreadTopFrame>>> requests = new ArrayList<>();
+		requests.add(rm);
+		fPendingTopFrames.put(container, requests);
+		final int generation = fTopFramesGeneration;
+
+		control.queueCommand(
+				control.getCommandFactory().createMIThreadInfo(control.getContext()),
+				new DataRequestMonitor<MIThreadInfoInfo>(getExecutor(), null) {
 			@Override
-			protected void handleSuccess() {
-				IFrameDMData baseData = getData();
-				
-				rm.done(new IFrameDMData() {
-					@Override
-					public String getModule() {
-						return baseData.getModule();
-					}
-					
-					@Override
-					public int getLine() {
-						return baseData.getLine();
-					}
-					
-					@Override
-					public String getFunction() {
-						if (baseData.getFunction().equals("main")) {
-							return "entry";
-						} else {
-							return baseData.getFunction();
-						}
-					}
-					
-					@Override
-					public String getFile() {
-						return baseData.getFile();
-					}
-					
-					@Override
-					public int getColumn() {
-						return baseData.getColumn();
+			protected void handleCompleted() {
+				if (fPendingTopFrames.get(container) == requests) {
+					fPendingTopFrames.remove(container);
+				}
+
+				if (!isSuccess()) {
+					for (DataRequestMonitor<List<ThreadTopFrame>> request : requests) {
+						request.done(getStatus());
 					}
+					return;
+				}
 
-					@Override
-					public IAddress getAddress() {
-						return baseData.getAddress();
+				List<ThreadTopFrame> topFrames = createTopFrames(processes, control, container, getData().getThreadList());
+				if (generation == fTopFramesGeneration) {
+					fTopFrames.put(container, topFrames);
+					for (ThreadTopFrame topFrame : topFrames) {
+						fFrameDataCache.put(topFrame.getFrame(), topFrame.getFrameData());
 					}
-				});
+				}
+				for (DataRequestMonitor<List<ThreadTopFrame>> request : requests) {
+					request.done(topFrames);
+				}
 			}
 		});
 	}
+
+	private List<ThreadTopFrame> createTopFrames(IMIProcesses processes, IMICommandControl control,
+			IMIContainerDMContext container, MIThread[] threads) {
+		List<ThreadTopFrame> topFrames = new ArrayList<>(threads.length);
+		IProcessDMContext processDmc = DMContexts.getAncestorOfType(container, IProcessDMContext.class);
+		for (MIThread thread : threads) {
+			MIFrame frame = thread.getTopFrame();
+			// -thread-info lists the threads of all processes; running threads have no frame
+			if (frame == null || !container.equals(processes.createContainerContextFromThreadId(control.getContext(), thread.getThreadId()))) {
+				continue;
+			}
+			IThreadDMContext threadDmc = processes.createThreadContext(processDmc, thread.getThreadId());
+			IMIExecutionDMContext execDmc = processes.createExecutionContext(container, threadDmc, thread.getThreadId());
+			MIArg[] args = frame.getArgs();
+			topFrames.add(new ThreadTopFrame(
+					execDmc,
+					new MIFrameDMC(getSession().getId(), execDmc, 0),
+					wrapFrameData(frame),
+					args == null ? 0 : args.length));
+		}
+		return topFrames;
+	}
+
+	/**
+	 * The data of a frame, as given in the output of -thread-info.
+	 */
+	private static class MIFrameData implements IFrameDMData {
+		private final MIFrame fFrame;
+
+		MIFrameData(MIFrame frame) {
+			fFrame = frame;
+		}
+
+		@Override
+		public IAddress getAddress() {
+			String address = fFrame.getAddress();
+			if (address == null || address.isEmpty()) {
+				return new Addr32(0);
+			}
+			// Same convention as the frame data of the base stack service
+			String digits = address.startsWith("0x") ? address.substring(2) : address; //$NON-NLS-1$
+			return digits.length() <= 8 ? new Addr32(address) : new Addr64(address);
+		}
+
+		@Override
+		public String getFile() {
+			return fFrame.getFile();
+		}
+
+		@Override
+		public String getFunction() {
+			return fFrame.getFunction();
+		}
+
+		@Override
+		public int getLine() {
+			return fFrame.getLine();
+		}
+
+		@Override
+		public int getColumn() {
+			return 0;
+		}
+
+		@Override
+		public String getModule() {
+			return ""; //$NON-NLS-1$
+		}
+	}
+
+	private void invalidateTopFrames(IDMContext context) {
+		fTopFramesGeneration++;
+		invalidate(fTopFrames.keySet().iterator(), context);
+		invalidate(fPendingTopFrames.keySet().iterator(), context);
+	}
+
+	private static void invalidate(Iterator<IMIContainerDMContext> containers, IDMContext context) {
+		while (containers.hasNext()) {
+			IMIContainerDMContext container = containers.next();
+			// A thread of the process, the process itself, or any parent of it
+			if (context == null || DMContexts.isAncestorOf(context, container) || DMContexts.isAncestorOf(container, context)) {
+				containers.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the wrapped data of a frame given in MI output, such as
+	 * that of -thread-info or -stack-list-frames.
+	 */
+	public static IFrameDMData wrapFrameData(MIFrame frame) {
+		return wrapFrameData(new MIFrameData(frame));
+	}
+
+	public static IFrameDMData wrapFrameData(final IFrameDMData baseData) {
+		return new IFrameDMData() {
+			@Override
+			public String getModule() {
+				return baseData.getModule();
+			}
+
+			@Override
+			public int getLine() {
+				return baseData.getLine();
+			}
+
+			@Override
+			public String getFunction() {
+				if (baseData.getFunction().equals("main")) {
+					return "entry";
+				} else {
+					return baseData.getFunction();
+				}
+			}
+
+			@Override
+			public String getFile() {
+				return baseData.getFile();
+			}
+
+			@Override
+			public int getColumn() {
+				return baseData.getColumn();
+			}
+
+			@Override
+			public IAddress getAddress() {
+				return baseData.getAddress();
+			}
+		};
+	}
+
+	@Override
+	public void flushCache(IDMContext context) {
+		super.flushCache(context);
+		fFrameDataCache.invalidate(context);
+		invalidateTopFrames(context);
+	}
+
+	@DsfServiceEventHandler
+	public void frameCacheEventDispatched(ISuspendedDMEvent e) {
+		fFrameDataCache.invalidate(e.getDMContext());
+		invalidateTopFrames(e.getDMContext());
+	}
+
+	@DsfServiceEventHandler
+	public void frameCacheEventDispatched(IResumedDMEvent e) {
+		fFrameDataCache.invalidate(e.getDMContext());
+		invalidateTopFrames(e.getDMContext());
+	}
+
+	public long getFrameDataCacheHits() {
+		return fFrameDataCache.getHits();
+	}
+
+	public long getFrameDataCacheMisses() {
+		return fFrameDataCache.getMisses();
+	}
 }
@@ -9,43 +9,83 @@
 
 package org.eclipse.cdt.example.framespy;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
+import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.datamodel.IDMContext;
-import org.eclipse.cdt.dsf.debug.service.IRunControl.IContainerSuspendedDMEvent;
-import org.eclipse.cdt.dsf.debug.service.IRunControl.IExecutionDMContext;
-import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
-import org.eclipse.cdt.dsf.debug.service.IStack;
-import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
-import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMData;
-import org.eclipse.cdt.dsf.service.DsfServiceEventHandler;
-import org.eclipse.cdt.dsf.service.DsfServicesTracker;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandControlService;
 import org.eclipse.cdt.dsf.service.DsfSession;
-import org.eclipse.cdt.dsf.service.DsfSession.SessionStartedListener;
 import org.eclipse.core.runtime.IAdaptable;
-import org.eclipse.core.runtime.preferences.IEclipsePreferences;
-import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.debug.ui.DebugUITools;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.swt.SWT;
-import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
-import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Menu;
+import org.eclipse.swt.widgets.TabFolder;
+import org.eclipse.swt.widgets.TabItem;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.part.ViewPart;
 
 public class FrameSpyView extends ViewPart {
 
-	private static final int MAX_LOG_SIZE = 20*1024*1024;
-	private static final String TOGGLE_STATE_PREF_KEY = "toggle.state";
+	private static final String[] COLUMN_NAMES = { "Time", "Function", "File", "Line", "Address", "Args", "Session", "Thread", "Call Path" };
+	private static final int[] COLUMN_WIDTHS = { 110, 200, 150, 60, 110, 50, 70, 70, 300 };
+	private static final String[] WATCH_COLUMN_NAMES = { "Time", "Expression", "Value", "Session", "Thread" };
+	private static final int[] WATCH_COLUMN_WIDTHS = { 110, 200, 150, 70, 70 };
+	private static final String[] STATS_COLUMN_NAMES = { "Session", "Command", "Count", "Queue p50", "Queue p99", "GDB p50", "GDB p99", "GDB max", "Avg output" };
+	private static final int[] STATS_COLUMN_WIDTHS = { 70, 200, 70, 90, 90, 90, 90, 90, 80 };
+	private static final int STATS_REFRESH_INTERVAL = 1000;
+	// Wait for a pause in typing before filtering
+	private static final int FILTER_DELAY = 150;
 	private MenuManager fMenuManager;
-	private StyledText fLogText;
-	private Set<DsfSession> fSessionSet = new HashSet<>();
+	private Table fLogTable;
+	// Only accessed from the UI thread
+	private final FrameRecordBuffer fLogBuffer = new FrameRecordBuffer(
+			FrameSpyPreferences.getSettings().getMaxLogRecords(), FrameSpyPreferences.getSettings().getMaxLogSize());
+	// Finds records of the log buffer without going through all of them.  Only accessed from the UI thread.
+	private FrameRecordIndex fLogIndex = new FrameRecordIndex(fLogBuffer.getCapacity());
+	private Text fFilterText;
+	// The filter of the log and the sequence numbers of the records it
+	// shows, or null to show them all.  Only accessed from the UI thread.
+	private FrameRecordFilter fFilter;
+	private FrameRecordIndex.SequenceList fFilteredSequences;
+	private FrameRecordBatcher fBatcher;
+	// Optional sink streaming the records to a file.  Only accessed from the UI thread.
+	private FrameTraceWriter fTraceWriter;
+	// Optional sink exporting the records as they are produced
+	private ChromeTraceExporter fExporter;
+	private HotFunctionsPanel fHotFunctionsPanel;
+	private Table fWatchTable;
+	// Number of watched values added when the table was last refreshed
+	private long fShownWatchValues;
+	// Session being sampled, only accessed from the UI thread
+	private DsfSession fSamplingSession;
+	// Profiler of the last sampled session, set on its executor
+	private volatile SamplingProfiler fSamplingProfiler;
+	private Table fStatsTable;
+	// MI command statistics of each session, by session id.  Only accessed from the UI thread.
+	private final Map<String, List<MICommandStatistics>> fCommandStatistics = new HashMap<>();
 
 	public FrameSpyView() {
 	}
@@ -54,238 +94,785 @@ public class FrameSpyView extends ViewPart {
 	public void createPartControl(Composite parent) {
 		Composite composite = new Composite(parent, SWT.NONE);
 		composite.setLayout(new GridLayout());
+		SashForm sash = new SashForm(composite, SWT.VERTICAL);
+		sash.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 
-		fLogText = new StyledText(composite, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.MULTI);
-		fLogText.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+		// The log, and the same records aggregated per function
+		TabFolder tabFolder = new TabFolder(sash, SWT.NONE);
+		TabItem logTab = new TabItem(tabFolder, SWT.NONE);
+		logTab.setText("Log");
+		TabItem hotFunctionsTab = new TabItem(tabFolder, SWT.NONE);
+		hotFunctionsTab.setText("Hot Functions");
+		TabItem watchTab = new TabItem(tabFolder, SWT.NONE);
+		watchTab.setText("Watches");
+
+		Composite logComposite = new Composite(tabFolder, SWT.NONE);
+		GridLayout logLayout = new GridLayout();
+		logLayout.marginWidth = 0;
+		logLayout.marginHeight = 0;
+		logComposite.setLayout(logLayout);
+		fFilterText = new Text(logComposite, SWT.SEARCH | SWT.ICON_CANCEL);
+		fFilterText.setMessage("Filter: function file:name thread:id last:seconds");
+		fFilterText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		fFilterText.addListener(SWT.Modify, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				fFilterText.getDisplay().timerExec(FILTER_DELAY, fFilterApplier);
+			}
+		});
+
+		// Use a virtual table so that only the visible rows are ever rendered,
+		// no matter how many records the log holds
+		fLogTable = new Table(logComposite, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.MULTI | SWT.FULL_SELECTION | SWT.VIRTUAL);
+		fLogTable.setHeaderVisible(true);
+		for (int i = 0; i < COLUMN_NAMES.length; i++) {
+			TableColumn column = new TableColumn(fLogTable, SWT.LEFT);
+			column.setText(COLUMN_NAMES[i]);
+			column.setWidth(COLUMN_WIDTHS[i]);
+		}
+		fLogTable.addListener(SWT.SetData, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				TableItem item = (TableItem)event.item;
+				int index = fLogBuffer.indexOf(getSequence(event.index));
+				if (index >= 0) {
+					item.setText(getColumnTexts(fLogBuffer.get(index)));
+				}
+			}
+		});
+		fLogTable.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+		logTab.setControl(logComposite);
+
+		fHotFunctionsPanel = new HotFunctionsPanel(tabFolder);
+		hotFunctionsTab.setControl(fHotFunctionsPanel.getControl());
+
+		// The values of the watched expressions are stored by column, only
+		// turned into text for the visible rows
+		fWatchTable = new Table(tabFolder, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.MULTI | SWT.FULL_SELECTION | SWT.VIRTUAL);
+		fWatchTable.setHeaderVisible(true);
+		for (int i = 0; i < WATCH_COLUMN_NAMES.length; i++) {
+			TableColumn column = new TableColumn(fWatchTable, i == 2 ? SWT.RIGHT : SWT.LEFT);
+			column.setText(WATCH_COLUMN_NAMES[i]);
+			column.setWidth(WATCH_COLUMN_WIDTHS[i]);
+		}
+		fWatchTable.addListener(SWT.SetData, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				TableItem item = (TableItem)event.item;
+				// Rows are numbered from the newest value of the last refresh,
+				// whatever was added since
+				WatchValueBuffer.Value value = FrameSpyEngine.getWatchValues().get(fShownWatchValues - 1 - event.index);
+				if (value != null) {
+					item.setText(new String[] {
+							FrameSpyClock.formatTimeOfDay(value.getTimestamp()),
+							value.getExpression(),
+							value.getValue(),
+							value.getSessionId(),
+							value.getThreadId() == null ? "" : value.getThreadId()
+					});
+				}
+			}
+		});
+		watchTab.setControl(fWatchTable);
+
+		// The latency of the MI commands of every session, slowest first
+		fStatsTable = new Table(sash, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.FULL_SELECTION);
+		fStatsTable.setHeaderVisible(true);
+		for (int i = 0; i < STATS_COLUMN_NAMES.length; i++) {
+			TableColumn column = new TableColumn(fStatsTable, i < 2 ? SWT.LEFT : SWT.RIGHT);
+			column.setText(STATS_COLUMN_NAMES[i]);
+			column.setWidth(STATS_COLUMN_WIDTHS[i]);
+		}
+		sash.setWeights(new int[] { 3, 1 });
+		parent.getDisplay().timerExec(STATS_REFRESH_INTERVAL, fStatsRefresher);
+
+		// Records are produced by the engine on the DSF executor; batch them so
+		// that bursts of suspend events only cause one UI update per flush interval
+		fBatcher = new FrameRecordBatcher(
+				parent.getDisplay(),
+				FrameRecordBatcher.DEFAULT_MAX_PENDING,
+				new FrameRecordBatcher.IBatchListener() {
+					@Override
+					public void recordsFlushed(List<FrameRecord> records) {
+						appendRecords(records);
+					}
+				});
+		fBatcher.setFlushInterval(FrameSpyPreferences.getSettings().getFlushInterval());
+		FrameSpyPreferences.addSettingsListener(fSettingsListener);
+		FrameSpyEngine.addRecordListener(fRecordListener);
 
 		fMenuManager = new MenuManager();
-		Menu menu = fMenuManager.createContextMenu(fLogText);
-		fLogText.setMenu(menu);
+		Menu menu = fMenuManager.createContextMenu(fLogTable);
+		fLogTable.setMenu(menu);
 		getViewSite().registerContextMenu(fMenuManager, null);
 		
 		// Display the new state to the user
 		boolean toggledState = getToggledState();
-		fLogText.setText(Boolean.toString(toggledState));
+		showToggledState(toggledState);
 
-		// Register to know about all new DSF sessions
-		DsfSession.addSessionStartedListener(fStartedListener);
-
-		// Create the polling job if the spy is enabled
+		// Show the current frame if the spy is enabled
 		if (toggledState) {
-			startPollingJob();
+			logSelectedFrame();
 		}
 	}
-	
-	private SessionStartedListener fStartedListener = new SessionStartedListener() {
+
+	private final FrameSpyEngine.IRecordListener fRecordListener = new FrameSpyEngine.IRecordListener() {
+		@Override
+		public void recordProduced(FrameRecord record) {
+			fBatcher.add(record);
+		}
+
+		@Override
+		public boolean isSaturated() {
+			return fBatcher.isSaturated();
+		}
+	};
+
+	private final FrameSpyPreferences.ISettingsListener fSettingsListener = new FrameSpyPreferences.ISettingsListener() {
 		@Override
-		public void sessionStarted(DsfSession session) {
-			// If the FrameSpy is enabled, register for events
-			// in the new session
-			if (getToggledState()) {
-				registerForEvents(session);
+		public void settingsChanged(FrameSpySettings oldSettings, final FrameSpySettings newSettings) {
+			// Safe to change from any thread
+			fBatcher.setFlushInterval(newSettings.getFlushInterval());
+
+			if (newSettings.getMaxLogRecords() != oldSettings.getMaxLogRecords()
+					|| newSettings.getMaxLogSize() != oldSettings.getMaxLogSize()) {
+				// The log is only accessed from the UI thread
+				if (!fLogTable.isDisposed()) {
+					fLogTable.getDisplay().asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							if (!fLogTable.isDisposed()) {
+								setLogLimits(newSettings.getMaxLogRecords(), newSettings.getMaxLogSize());
+							}
+						}
+					});
+				}
 			}
 		}
 	};
 
+	private final Runnable fFilterApplier = new Runnable() {
+		@Override
+		public void run() {
+			if (!fFilterText.isDisposed()) {
+				applyFilter(fFilterText.getText());
+			}
+		}
+	};
+
+	private final Runnable fStatsRefresher = new Runnable() {
+		@Override
+		public void run() {
+			if (fStatsTable == null || fStatsTable.isDisposed()) {
+				return;
+			}
+			refreshCommandStatistics();
+			refreshWatchValues();
+			fStatsTable.getDisplay().timerExec(STATS_REFRESH_INTERVAL, this);
+		}
+	};
+
 	@Override
 	public void setFocus() {
-		fLogText.setFocus();
+		fLogTable.setFocus();
 	}
 	
 	@Override
 	public void dispose() {
 		super.dispose();
+		FrameSpyPreferences.removeSettingsListener(fSettingsListener);
+		FrameSpyEngine.removeRecordListener(fRecordListener);
+		fBatcher.dispose();
+		fHotFunctionsPanel.dispose();
+		if (!fStatsTable.isDisposed()) {
+			fStatsTable.getDisplay().timerExec(-1, fStatsRefresher);
+			fStatsTable.getDisplay().timerExec(-1, fFilterApplier);
+		}
+		stopTrace();
+		stopExport();
+		stopSampling();
 		fMenuManager.dispose();
-		DsfSession.removeSessionStartedListener(fStartedListener);
 	}
 
 	public boolean getToggledState() {
-		IEclipsePreferences preferences = InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID);
-		String togglePrefValue = preferences.get(TOGGLE_STATE_PREF_KEY, Boolean.FALSE.toString());
-		return Boolean.parseBoolean(togglePrefValue);
+		return FrameSpyPreferences.getSettings().isEnabled();
 	}
 
-	public void setToggledState(boolean newState) {
+	public void setToggledState(final boolean newState) {
 		boolean oldState = getToggledState();
 		if (oldState != newState) {
 			// Display the new state to the user
-			fLogText.setText(Boolean.toString(newState));
+			showToggledState(newState);
 
 			// Save the toggle state in a preference so that it's remembered
-			// next time the view is opened
-			IEclipsePreferences preferences = InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID);
-			preferences.put(TOGGLE_STATE_PREF_KEY, Boolean.toString(newState));
-						
-			// Create the polling job if the spy is enabled
+			// next time the view is opened.  The engine follows the preference.
+			FrameSpyPreferences.updateSettings(new FrameSpyPreferences.ISettingsUpdater() {
+				@Override
+				public FrameSpySettings update(FrameSpySettings settings) {
+					return settings.withEnabled(newState);
+				}
+			});
+
+			// Show the current frame right away
 			if (newState) {
-				startPollingJob();
-			} else {
-				cancelPollingJob();
+				logSelectedFrame();
 			}
 		}
 
 	}
 
-	private void startPollingJob() {
-		// Get the debug selection to know what the user is looking at in the Debug view
-		IAdaptable context = DebugUITools.getDebugContext();
-		if (context == null) {
-			return;
+	/**
+	 * Returns the maximum number of frames of the call path of each record,
+	 * 0 meaning that only the top frame is logged.
+	 */
+	public int getCallPathDepth() {
+		return FrameSpyPreferences.getSettings().getCallPathDepth();
+	}
+
+	public void setCallPathDepth(final int depth) {
+		FrameSpyPreferences.updateSettings(new FrameSpyPreferences.ISettingsUpdater() {
+			@Override
+			public FrameSpySettings update(FrameSpySettings settings) {
+				return settings.withCallPathDepth(depth);
+			}
+		});
+	}
+
+	/**
+	 * Returns whether the top frame of every thread is logged when a process stops.
+	 */
+	public boolean isAllThreads() {
+		return FrameSpyPreferences.getSettings().isAllThreads();
+	}
+
+	public void setAllThreads(final boolean allThreads) {
+		FrameSpyPreferences.updateSettings(new FrameSpyPreferences.ISettingsUpdater() {
+			@Override
+			public FrameSpySettings update(FrameSpySettings settings) {
+				return settings.withAllThreads(allThreads);
+			}
+		});
+	}
+
+	private void showToggledState(boolean state) {
+		setContentDescription(state ? "Spy enabled" : "Spy disabled");
+	}
+
+	private static String[] getColumnTexts(FrameRecord record) {
+		if (record.isSuppressedSummary()) {
+			return new String[] {
+					FrameSpyClock.formatTimeOfDay(record.getTimestamp()),
+					record.getSuppressedSummaryText(),
+					"", "", "", "",
+					record.getSessionId(),
+					record.getThreadId() == null ? "" : record.getThreadId(),
+					""
+			};
 		}
+		return new String[] {
+				FrameSpyClock.formatTimeOfDay(record.getTimestamp()),
+				record.getFunction(),
+				record.getFile() == null ? "" : record.getFile(),
+				Integer.toString(record.getLine()),
+				record.getAddress() == null ? "" : record.getAddress(),
+				record.getNumArgs() == FrameRecord.UNKNOWN_NUM_ARGS ? "" : Integer.toString(record.getNumArgs()),
+				record.getSessionId(),
+				record.getThreadId() == null ? "" : record.getThreadId(),
+				record.getCallPath() == null ? "" : record.getCallPath()
+		};
+	}
 
-		// Extract the data model context to use with the DSF services
-		IDMContext dmcontext = context.getAdapter(IDMContext.class);
-		if (dmcontext == null) {
-			// Not dealing with a DSF session
+	/**
+	 * Adds records at the top of the log.  Must be called on the UI thread.
+	 */
+	private void appendRecords(List<FrameRecord> records) {
+		if (fLogTable == null || fLogTable.isDisposed()) {
 			return;
 		}
+		// The buffer evicts the oldest records itself, so this never copies the log
+		for (FrameRecord record : records) {
+			long sequence = fLogBuffer.getNextSequence();
+			fLogBuffer.add(record);
+			// Keep the index to the records of the buffer
+			fLogIndex.removeBefore(fLogBuffer.getOldestSequence());
+			fLogIndex.add(sequence, record);
+			// New records are checked one by one, the index is only
+			// needed when the filter changes
+			if (fFilter != null && fFilter.matches(record)) {
+				fFilteredSequences.add(sequence);
+			}
+		}
+		if (fFilter != null) {
+			fFilteredSequences.removeBefore(fLogBuffer.getOldestSequence());
+			fLogTable.setItemCount(fFilteredSequences.size());
+		} else {
+			fLogTable.setItemCount(fLogBuffer.size());
+		}
+		// Newest records are shown first so every index shifted.  Only the
+		// visible rows will be asked for their data again.
+		fLogTable.clearAll();
+
+		fHotFunctionsPanel.addRecords(records);
+
+		showBatchStatistics();
+	}
+
+	/**
+	 * Applies new limits to the log, keeping its newest records.
+	 */
+	private void setLogLimits(int maxRecords, long maxBytes) {
+		fLogBuffer.setLimits(maxRecords, maxBytes);
+		// The index is sized for the buffer: rebuild it from the records left
+		fLogIndex = new FrameRecordIndex(fLogBuffer.getCapacity());
+		for (int index = fLogBuffer.size() - 1; index >= 0; index--) {
+			fLogIndex.add(fLogBuffer.getSequence(index), fLogBuffer.get(index));
+		}
+		showFilteredRecords();
+	}
+
+	/**
+	 * Only shows the records of the log matching the filter, see
+	 * {@link FrameRecordFilter}.  An empty filter shows all of them.
+	 */
+	public void applyFilter(String text) {
+		fFilter = FrameRecordFilter.parse(text, FrameSpyClock.now());
+		showFilteredRecords();
+	}
+
+	/**
+	 * Shows the records of the log matching the current filter.
+	 */
+	private void showFilteredRecords() {
+		if (fFilter == null) {
+			fFilteredSequences = null;
+			fLogTable.setItemCount(fLogBuffer.size());
+		} else {
+			fFilteredSequences = fLogIndex.find(fFilter);
+			fLogTable.setItemCount(fFilteredSequences.size());
+		}
+		fLogTable.clearAll();
+	}
+
+	/**
+	 * Returns the sequence number of the record shown at the specified row of the log.
+	 */
+	private long getSequence(int row) {
+		if (fFilteredSequences != null) {
+			// Newest first, like the buffer
+			int index = fFilteredSequences.size() - 1 - row;
+			return index >= 0 && index < fFilteredSequences.size() ? fFilteredSequences.get(index) : -1;
+		}
+		return row >= 0 && row < fLogBuffer.size() ? fLogBuffer.getSequence(row) : -1;
+	}
+
+	/**
+	 * Returns the row of the log showing the record with the specified
+	 * sequence number, or -1 if it is not shown.
+	 */
+	private int getRow(long sequence) {
+		if (fFilteredSequences != null) {
+			int index = fFilteredSequences.indexOf(sequence);
+			return index < 0 ? -1 : fFilteredSequences.size() - 1 - index;
+		}
+		return fLogBuffer.indexOf(sequence);
+	}
+
+	/**
+	 * Selects the closest record of the log, below or above the selected
+	 * one, that is in the same function.  Records hidden by the filter are
+	 * skipped.
+	 * @param older Whether to go down the log, towards older records
+	 * @return false if there is no such record
+	 */
+	public boolean selectNextHit(boolean older) {
+		int row = fLogTable.getSelectionIndex();
+		long sequence = getSequence(row);
+		int index = fLogBuffer.indexOf(sequence);
+		if (index < 0) {
+			return false;
+		}
+		String function = fLogBuffer.get(index).getFunction();
+		if (function == null) {
+			return false;
+		}
+
+		do {
+			sequence = fLogIndex.findNext(FrameRecordIndex.FIELD_FUNCTION, function, sequence, !older);
+			if (sequence < 0) {
+				return false;
+			}
+			row = getRow(sequence);
+		} while (row < 0);
+		fLogTable.setSelection(row);
+		fLogTable.showSelection();
+		return true;
+	}
+
+	public boolean isTracing() {
+		return fTraceWriter != null;
+	}
+
+	/**
+	 * Starts streaming every new record to the specified file, in addition to showing it.
+	 */
+	public void startTrace(Path file) {
+		stopTrace();
+		try {
+			fTraceWriter = new FrameTraceWriter(file);
+			// Take the records from the engine directly, so that the trace
+			// does not depend on the UI keeping up
+			FrameSpyEngine.addRecordListener(fTraceWriter);
+		} catch (IOException e) {
+			Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot create Frame Spy trace " + file, e));
+		}
+	}
+
+	public void stopTrace() {
+		if (fTraceWriter != null) {
+			FrameSpyEngine.removeRecordListener(fTraceWriter);
+			close(fTraceWriter, "Frame Spy trace");
+			fTraceWriter = null;
+		}
+	}
+
+	public boolean isExporting() {
+		return fExporter != null;
+	}
+
+	/**
+	 * Starts exporting every new record to the specified file, in the Chrome trace event format.
+	 */
+	public void startExport(Path file) {
+		stopExport();
+		try {
+			fExporter = new ChromeTraceExporter(file);
+			FrameSpyEngine.addRecordListener(fExporter);
+		} catch (IOException e) {
+			Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot create Frame Spy export " + file, e));
+		}
+	}
+
+	public void stopExport() {
+		if (fExporter != null) {
+			FrameSpyEngine.removeRecordListener(fExporter);
+			close(fExporter, "Frame Spy export");
+			fExporter = null;
+		}
+	}
+
+	/**
+	 * Closes a trace or export that is no longer given records.
+	 */
+	private static void close(final QueuedRecordWriter writer, final String name) {
+		// Writing the queued records can take a while, don't block the UI
+		Job closeJob = new Job("Close " + name) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					return new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot write " + name, e);
+				}
+				if (writer.getDroppedRecordCount() > 0) {
+					return new Status(IStatus.WARNING, Activator.PLUGIN_ID,
+							String.format("%s could not keep up: %,d records were dropped", name, writer.getDroppedRecordCount()));
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		closeJob.setSystem(true);
+		closeJob.schedule();
+	}
 
-		// Extract DSF session id from the DM context
-		String sessionId = dmcontext.getSessionId();
-		// Get the full DSF session to have access to the DSF executor
-		DsfSession session = DsfSession.getSession(sessionId);
+	/**
+	 * Inserts a dprintf at the specified location, in the session selected
+	 * in the Debug view, so that its hits are logged without stopping.
+	 * @return false if no element of a DSF session is selected
+	 */
+	public boolean addSpyLocation(final String location) {
+		IAdaptable context = DebugUITools.getDebugContext();
+		final IDMContext dmcontext = context == null ? null : context.getAdapter(IDMContext.class);
+		final DsfSession session = dmcontext == null ? null : DsfSession.getSession(dmcontext.getSessionId());
 		if (session == null) {
-			// It could be that this session is no longer active
-			return;
+			return false;
 		}
 
-		registerForEvents(session);
-		
-		// Show the current frame if there is one
-		logFrameInfo(session, dmcontext);
+		session.getExecutor().submit(new DsfRunnable() {
+			@Override
+			public void run() {
+				FrameSpyService spyService = FrameSpyServiceManager.getService(session.getId());
+				if (spyService != null) {
+					spyService.addSpyLocation(dmcontext, location, new DataRequestMonitor<Integer>(session.getExecutor(), null) {
+						@Override
+						protected void handleError() {
+							Activator.log(getStatus());
+						}
+					});
+				}
+			}
+		});
+		return true;
 	}
 
 	/**
-	 * This method registers with the specified session to receive
-	 * DSF events.
-	 * @param session The session for which we want to receive events
+	 * Deletes the dprintfs of every session.
 	 */
-	private void registerForEvents(DsfSession session) {
-		if (session != null) {
-			fSessionSet.add(session);
+	public void removeSpyLocations() {
+		for (final DsfSession session : DsfSession.getActiveSessions()) {
 			session.getExecutor().submit(new DsfRunnable() {
 				@Override
 				public void run() {
-					session.addServiceEventListener(FrameSpyView.this, null);
+					FrameSpyService spyService = FrameSpyServiceManager.getStartedService(session.getId());
+					if (spyService != null) {
+						spyService.removeSpyLocations(new RequestMonitor(session.getExecutor(), null));
+					}
 				}
 			});
 		}
 	}
-	
+
 	/**
-	 * This method un-registers from all sessions to stop
-	 * getting DSF events.
-	 * @param session The session from which we want to no longer receive events
+	 * Starts recording the value of the specified expression each time a
+	 * frame of the session selected in the Debug view is logged.
+	 * @return false if no element of a DSF session is selected
 	 */
-	private void cancelPollingJob() {
-		for (DsfSession session : fSessionSet) {
-			if (DsfSession.isSessionActive(session.getId())) {
-				session.getExecutor().submit(new DsfRunnable() {
-					@Override
-					public void run() {
-						session.removeServiceEventListener(FrameSpyView.this);
-					}
-				});
+	public boolean addWatchExpression(final String expression) {
+		IAdaptable context = DebugUITools.getDebugContext();
+		final IDMContext dmcontext = context == null ? null : context.getAdapter(IDMContext.class);
+		final DsfSession session = dmcontext == null ? null : DsfSession.getSession(dmcontext.getSessionId());
+		if (session == null) {
+			return false;
+		}
+
+		session.getExecutor().submit(new DsfRunnable() {
+			@Override
+			public void run() {
+				FrameSpyService spyService = FrameSpyServiceManager.getService(session.getId());
+				if (spyService != null) {
+					spyService.addWatchExpression(dmcontext, expression, new RequestMonitor(session.getExecutor(), null) {
+						@Override
+						protected void handleError() {
+							Activator.log(getStatus());
+						}
+					});
+				}
 			}
+		});
+		return true;
+	}
+
+	/**
+	 * Stops recording the watched expressions of every session.
+	 */
+	public void removeWatchExpressions() {
+		for (final DsfSession session : DsfSession.getActiveSessions()) {
+			session.getExecutor().submit(new DsfRunnable() {
+				@Override
+				public void run() {
+					FrameSpyService spyService = FrameSpyServiceManager.getStartedService(session.getId());
+					if (spyService != null) {
+						spyService.removeWatchExpressions(new RequestMonitor(session.getExecutor(), null));
+					}
+				}
+			});
 		}
 	}
-	
-	private void logFrameInfo(DsfSession session, IDMContext dmcontext) {
+
+	/**
+	 * Shows the values recorded for the watched expressions since the last
+	 * refresh.  Must be called on the UI thread.
+	 */
+	private void refreshWatchValues() {
+		WatchValueBuffer values = FrameSpyEngine.getWatchValues();
+		long addedCount;
+		int size;
+		synchronized (values) {
+			addedCount = values.getAddedCount();
+			size = values.size();
+		}
+		if (addedCount != fShownWatchValues) {
+			fShownWatchValues = addedCount;
+			fWatchTable.setItemCount(size);
+			// Newest values are shown first, so every row may have changed
+			fWatchTable.clearAll();
+		}
+	}
+
+	public boolean isSampling() {
+		return fSamplingSession != null;
+	}
+
+	/**
+	 * Starts the sampling profiler on the process selected in the Debug view.
+	 * @return false if no process of a DSF session is selected
+	 */
+	public boolean startSampling() {
+		IAdaptable context = DebugUITools.getDebugContext();
+		final IDMContext dmcontext = context == null ? null : context.getAdapter(IDMContext.class);
+		final DsfSession session = dmcontext == null ? null : DsfSession.getSession(dmcontext.getSessionId());
+		if (session == null) {
+			return false;
+		}
+
+		stopSampling();
+		fSamplingSession = session;
 		session.getExecutor().submit(new DsfRunnable() {
 			@Override
 			public void run() {
-				// Get Stack service using a DSF services tracker object
-				DsfServicesTracker tracker = new DsfServicesTracker(Activator.getBundleContext(), session.getId());
-				IStack stackService = tracker.getService(IStack.class);
-				FrameSpyService spyService = tracker.getService(FrameSpyService.class);
-				// Don't forgot to dispose of a tracker before it does out of scope
-				tracker.dispose();
-
-				if (stackService == null || spyService == null) {
-					// Service not available.  The debug session
-					// is probably terminating.
-					return;
+				FrameSpyService spyService = FrameSpyServiceManager.getService(session.getId());
+				if (spyService != null) {
+					fSamplingProfiler = spyService.getSamplingProfiler();
+					FrameSpySettings settings = FrameSpyPreferences.getSettings();
+					spyService.startSampling(dmcontext, settings.getSamplingRate(), settings.getSamplingDepth(),
+							settings.getSamplingMaxOverhead(), new RequestMonitor(session.getExecutor(), null) {
+						@Override
+						protected void handleError() {
+							Activator.log(getStatus());
+						}
+					});
 				}
+			}
+		});
+		return true;
+	}
 
-				// Get the full DSF session to have access to the DSF executor
-				stackService.getTopFrame(dmcontext, new DataRequestMonitor<IFrameDMContext>(session.getExecutor(), null) {
-					@Override
-					protected void handleSuccess() {
-						// The service called 'handleSuccess()' so we know there is no error.
-						IFrameDMContext frame = getData();
-						// We have a frame context.  It is just a 'pointer' though.
-						// We need to get the data associated with it.
-						stackService.getFrameData(frame, new DataRequestMonitor<IFrameDMData>(session.getExecutor(), null) {
-							@Override
-							protected void handleSuccess() {
-								// We have the frame data, let's print the method name and line number
-								final IFrameDMData frameData = getData();
-
-								// First get the timestamp
-								String time = spyService.getLocalTimeOfDayString();
-								
-								// Second, get the number of arguments to add that information
-								spyService.getNumberArguments(
-									frame, 
-									new DataRequestMonitor<Integer>(session.getExecutor(), null) {
-										@Override
-										protected void handleSuccess() {
-											String numArgs = getData().toString();
-													
-											Display.getDefault().asyncExec(new Runnable() {
-												@Override
-												public void run() {
-													if (fLogText.getText().length() > MAX_LOG_SIZE) {
-														// Clear half the log when too big
-														fLogText.setText(fLogText.getText().substring(MAX_LOG_SIZE));
-													}
-													// Pre-pend the current "[time]method:line (num args)" to the log
-													fLogText.setText(
-															"[" + time + "] "
-															+ frameData.getFunction() + ":" 
-															+ frameData.getLine() + " (" + numArgs + " args)" 
-															+ "\n" + fLogText.getText());
-												}
-											});
-										}
-									});
-								}
-						});
+	public void stopSampling() {
+		final DsfSession session = fSamplingSession;
+		fSamplingSession = null;
+		if (session != null && DsfSession.isSessionActive(session.getId())) {
+			session.getExecutor().submit(new DsfRunnable() {
+				@Override
+				public void run() {
+					FrameSpyService spyService = FrameSpyServiceManager.getStartedService(session.getId());
+					if (spyService != null) {
+						spyService.stopSampling(new RequestMonitor(session.getExecutor(), null));
 					}
-					
-					@Override
-					protected void handleError() {
-						// Ignore errors when we select elements
-						// that don't contain frames
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the stacks collected by the last sampling session, or null if
+	 * sampling was never started.
+	 */
+	public FoldedStacks getSampledStacks() {
+		SamplingProfiler profiler = fSamplingProfiler;
+		return profiler == null ? null : profiler.getFoldedStacks();
+	}
+
+	private void showBatchStatistics() {
+		String message = fBatcher.getReceivedCount() + " events, " 
+				+ fBatcher.getCoalescedCount() + " coalesced, "
+				+ fBatcher.getDroppedCount() + " dropped, "
+				+ FrameSpyEngine.getTotalSuppressed() + " suppressed, "
+				+ FrameSpyEngine.getTotalSkipped() + " skipped";
+		getViewSite().getActionBars().getStatusLineManager().setMessage(message);
+	}
+
+	/**
+	 * Asks the command control service of every session for its MI command
+	 * statistics.  Must be called on the UI thread.
+	 */
+	private void refreshCommandStatistics() {
+		// Forget the sessions that are gone
+		fCommandStatistics.keySet().retainAll(getActiveSessionIds());
+
+		for (DsfSession session : DsfSession.getActiveSessions()) {
+			session.getExecutor().submit(new DsfRunnable() {
+				@Override
+				public void run() {
+					ICommandControlService control = FrameSpyServiceCache.getService(session.getId(), ICommandControlService.class);
+
+					if (!(control instanceof FrameSpyControlService)) {
+						// Not a session we launched, or it is terminating
+						return;
 					}
-				});	
+
+					((FrameSpyControlService)control).getCommandStatistics(
+							new DataRequestMonitor<List<MICommandStatistics>>(session.getExecutor(), null) {
+						@Override
+						protected void handleSuccess() {
+							final List<MICommandStatistics> statistics = getData();
+							if (fStatsTable.isDisposed()) {
+								return;
+							}
+							fStatsTable.getDisplay().asyncExec(new Runnable() {
+								@Override
+								public void run() {
+									if (!fStatsTable.isDisposed()) {
+										fCommandStatistics.put(session.getId(), statistics);
+										showCommandStatistics();
+									}
+								}
+							});
+						}
+					});
+				}
+			});
+		}
+	}
+
+	private static List<String> getActiveSessionIds() {
+		List<String> ids = new ArrayList<>();
+		for (DsfSession session : DsfSession.getActiveSessions()) {
+			ids.add(session.getId());
+		}
+		return ids;
+	}
+
+	private void showCommandStatistics() {
+		final Map<MICommandStatistics, String> sessionIds = new HashMap<>();
+		List<MICommandStatistics> rows = new ArrayList<>();
+		for (Map.Entry<String, List<MICommandStatistics>> entry : fCommandStatistics.entrySet()) {
+			for (MICommandStatistics statistics : entry.getValue()) {
+				sessionIds.put(statistics, entry.getKey());
+				rows.add(statistics);
+			}
+		}
+		// The commands that made the user wait the most are the interesting ones
+		Collections.sort(rows, new Comparator<MICommandStatistics>() {
+			@Override
+			public int compare(MICommandStatistics s1, MICommandStatistics s2) {
+				return Long.compare(s2.getRoundTripP99(), s1.getRoundTripP99());
 			}
-		});	
+		});
+
+		fStatsTable.setItemCount(rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			MICommandStatistics statistics = rows.get(i);
+			fStatsTable.getItem(i).setText(new String[] {
+					sessionIds.get(statistics),
+					statistics.getOperation(),
+					Long.toString(statistics.getCount()),
+					formatDuration(statistics.getQueueWaitP50()),
+					formatDuration(statistics.getQueueWaitP99()),
+					formatDuration(statistics.getRoundTripP50()),
+					formatDuration(statistics.getRoundTripP99()),
+					formatDuration(statistics.getRoundTripMax()),
+					Long.toString(statistics.getMeanOutputSize())
+			});
+		}
 	}
-	
-	// This method must be public for the DSF callback to be found
-	@DsfServiceEventHandler
-	public void eventReceived(ISuspendedDMEvent event) {
-		// Most DSF event have a DM context
-		IDMContext dmcontext = event.getDMContext();
-		if (dmcontext == null) {
+
+	private static String formatDuration(long nanos) {
+		return String.format("%.3f ms", nanos / 1000000.0);
+	}
+
+	private void logSelectedFrame() {
+		// Get the debug selection to know what the user is looking at in the Debug view
+		IAdaptable context = DebugUITools.getDebugContext();
+		if (context == null) {
 			return;
 		}
-		
-		// Extract DSF session id from the DM context
-		String sessionId = dmcontext.getSessionId();
-		// Get the full DSF session to have access to the DSF executor
-		DsfSession session = DsfSession.getSession(sessionId);
-
-		// For container events (all-stop mode), extract the triggering thread
-		if (event instanceof IContainerSuspendedDMEvent) {
-			IExecutionDMContext[] triggers = ((IContainerSuspendedDMEvent)event).getTriggeringContexts();
-			if (triggers != null && triggers.length > 0) {
-				assert triggers.length == 1;
-				dmcontext = triggers[0];
-			}
+
+		// Extract the data model context to use with the DSF services
+		IDMContext dmcontext = context.getAdapter(IDMContext.class);
+		if (dmcontext == null) {
+			// Not dealing with a DSF session
+			return;
 		}
-		
-		logFrameInfo(session, dmcontext);
+
+		FrameSpyEngine.logFrame(dmcontext);
 	}
 }
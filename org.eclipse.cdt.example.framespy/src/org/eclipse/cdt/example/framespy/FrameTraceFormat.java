@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * Constants describing the binary Frame Spy trace file.
+ *
+ * A trace starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * entries, each starting with a one byte tag:
+ * <ul>
+ * <li>{@link #TAG_STRING}: id, byte length, UTF-8 bytes.  Defines a string
+ *     of the string table; every string is written once, before its first use.</li>
+ * <li>{@link #TAG_FRAME}: time, function, file, line, address, number of
+ *     arguments, session, thread, call path.</li>
+ * <li>{@link #TAG_SUPPRESSED}: time, session, thread, number of suppressed events.</li>
+ * </ul>
+ * All integers are unsigned LEB128 varints and strings are referred to by
+ * their id, 0 standing for <code>null</code>.  The line and the number of
+ * arguments, which can be negative, are zigzag-encoded.  The time of a
+ * record is the zigzag-encoded difference, in nanoseconds, with the time
+ * of the previous record of the trace (or with 0 for the first record).
+ */
+class FrameTraceFormat {
+
+	static final byte[] MAGIC = { 'F', 'S', 'P', 'Y' };
+	static final byte VERSION = 4;
+
+	static final byte TAG_STRING = 1;
+	static final byte TAG_FRAME = 2;
+	static final byte TAG_SUPPRESSED = 3;
+
+	static final int NULL_STRING_ID = 0;
+
+	private FrameTraceFormat() {
+	}
+}
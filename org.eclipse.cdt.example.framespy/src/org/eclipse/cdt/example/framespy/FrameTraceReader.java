@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a trace written by {@link FrameTraceWriter}.  The file is read
+ * through a small buffer and records are decoded one at a time, so traces
+ * of millions of records can be iterated without loading them in memory.
+ * Only the string table is kept.
+ *
+ * A record cut short at the end of the file, for example because the
+ * writer was not closed properly, is silently ignored.
+ */
+public class FrameTraceReader implements Iterable<FrameRecord>, Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel fChannel;
+	private final ByteBuffer fBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	// Index 0 is the null string
+	private final List<String> fStringTable = new ArrayList<>();
+	private boolean fIteratorCreated;
+	private long fLastTimestamp;
+
+	public FrameTraceReader(Path file) throws IOException {
+		fChannel = FileChannel.open(file, StandardOpenOption.READ);
+		fBuffer.flip();
+		fStringTable.add(null);
+
+		byte[] magic = new byte[FrameTraceFormat.MAGIC.length];
+		try {
+			readBytes(magic);
+			if (!Arrays.equals(magic, FrameTraceFormat.MAGIC)) {
+				throw new IOException("Not a Frame Spy trace file: " + file); //$NON-NLS-1$
+			}
+			byte version = readByte();
+			if (version != FrameTraceFormat.VERSION) {
+				throw new IOException("Unsupported Frame Spy trace version: " + version); //$NON-NLS-1$
+			}
+		} catch (IOException e) {
+			fChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns an iterator over the records of the trace.  The trace can
+	 * only be iterated once.  I/O errors are thrown as {@link UncheckedIOException}.
+	 */
+	@Override
+	public Iterator<FrameRecord> iterator() {
+		if (fIteratorCreated) {
+			throw new IllegalStateException("A trace can only be iterated once"); //$NON-NLS-1$
+		}
+		fIteratorCreated = true;
+
+		return new Iterator<FrameRecord>() {
+			private FrameRecord fNext;
+			private boolean fDone;
+
+			@Override
+			public boolean hasNext() {
+				if (fNext == null && !fDone) {
+					try {
+						fNext = readRecord();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					fDone = fNext == null;
+				}
+				return fNext != null;
+			}
+
+			@Override
+			public FrameRecord next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				FrameRecord record = fNext;
+				fNext = null;
+				return record;
+			}
+		};
+	}
+
+	/**
+	 * Returns the next record, or null at the end of the trace.
+	 */
+	private FrameRecord readRecord() throws IOException {
+		try {
+			while (true) {
+				if (!fBuffer.hasRemaining() && !fill()) {
+					return null;
+				}
+
+				byte tag = readByte();
+				switch (tag) {
+				case FrameTraceFormat.TAG_STRING:
+					readString();
+					break;
+				case FrameTraceFormat.TAG_FRAME:
+					return new FrameRecord(
+							readTimestamp(),
+							getString(readVarint()),
+							getString(readVarint()),
+							(int)readZigzag(),
+							getString(readVarint()),
+							(int)readZigzag(),
+							getString(readVarint()),
+							getString(readVarint()),
+							getString(readVarint()));
+				case FrameTraceFormat.TAG_SUPPRESSED:
+					return FrameRecord.createSuppressedSummary(
+							readTimestamp(),
+							getString(readVarint()),
+							getString(readVarint()),
+							readVarint());
+				default:
+					throw new IOException("Corrupted Frame Spy trace: unknown tag " + tag); //$NON-NLS-1$
+				}
+			}
+		} catch (EOFException e) {
+			// Truncated last record
+			return null;
+		}
+	}
+
+	private void readString() throws IOException {
+		int id = (int)readVarint();
+		byte[] bytes = new byte[(int)readVarint()];
+		readBytes(bytes);
+		if (id != fStringTable.size()) {
+			throw new IOException("Corrupted Frame Spy trace: unexpected string id " + id); //$NON-NLS-1$
+		}
+		fStringTable.add(new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	private String getString(long id) throws IOException {
+		if (id < 0 || id >= fStringTable.size()) {
+			throw new IOException("Corrupted Frame Spy trace: unknown string id " + id); //$NON-NLS-1$
+		}
+		return fStringTable.get((int)id);
+	}
+
+	private long readTimestamp() throws IOException {
+		fLastTimestamp += readZigzag();
+		return fLastTimestamp;
+	}
+
+	private long readZigzag() throws IOException {
+		long zigzag = readVarint();
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (shift > 63) {
+				throw new IOException("Corrupted Frame Spy trace: varint too long"); //$NON-NLS-1$
+			}
+			b = readByte();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private byte readByte() throws IOException {
+		if (!fBuffer.hasRemaining() && !fill()) {
+			throw new EOFException();
+		}
+		return fBuffer.get();
+	}
+
+	private void readBytes(byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!fBuffer.hasRemaining() && !fill()) {
+				throw new EOFException();
+			}
+			int length = Math.min(fBuffer.remaining(), bytes.length - offset);
+			fBuffer.get(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * Reads more of the file in the buffer.
+	 * @return false if the end of the file was reached
+	 */
+	private boolean fill() throws IOException {
+		fBuffer.compact();
+		int read;
+		try {
+			read = fChannel.read(fBuffer);
+		} finally {
+			fBuffer.flip();
+		}
+		return read > 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		fChannel.close();
+	}
+}
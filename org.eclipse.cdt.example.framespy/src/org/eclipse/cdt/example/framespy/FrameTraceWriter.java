@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams {@link FrameRecord}s to a compact, append-only binary file.
+ * See {@link FrameTraceFormat} for the layout of the file.
+ *
+ * Records are written by a background thread, see {@link QueuedRecordWriter}.
+ * They are encoded in a memory buffer which is only written to the file
+ * channel when it is full, or when the writer is closed.
+ */
+public class FrameTraceWriter extends QueuedRecordWriter {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	// Larger strings are truncated; no function or file name should come close
+	private static final int MAX_STRING_BYTES = 16 * 1024;
+	// Encoded size of the largest varint, a negative long
+	private static final int MAX_VARINT_BYTES = 10;
+
+	// Only used by the writer thread
+	private final FileChannel fChannel;
+	private final ByteBuffer fBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final Map<String, Integer> fStringTable = new HashMap<>();
+	private long fLastTimestamp;
+
+	/**
+	 * Creates a new trace file, replacing any existing file at that location.
+	 */
+	public FrameTraceWriter(Path file) throws IOException {
+		this(file, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public FrameTraceWriter(Path file, int queueCapacity) throws IOException {
+		super("Frame Spy trace writer", queueCapacity); //$NON-NLS-1$
+		fChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		fBuffer.put(FrameTraceFormat.MAGIC);
+		fBuffer.put(FrameTraceFormat.VERSION);
+		start();
+	}
+
+	@Override
+	protected void writeRecord(FrameRecord record) throws IOException {
+		long time = zigzag(record.getTimestamp() - fLastTimestamp);
+
+		// Strings must be defined before the record that uses them
+		int session = intern(record.getSessionId());
+		int thread = intern(record.getThreadId());
+
+		if (record.isSuppressedSummary()) {
+			ensureRemaining(1 + 4 * MAX_VARINT_BYTES);
+			fBuffer.put(FrameTraceFormat.TAG_SUPPRESSED);
+			putVarint(time);
+			putVarint(session);
+			putVarint(thread);
+			putVarint(record.getSuppressedCount());
+		} else {
+			int function = intern(record.getFunction());
+			int file = intern(record.getFile());
+			int address = intern(record.getAddress());
+			int callPath = intern(record.getCallPath());
+
+			ensureRemaining(1 + 9 * MAX_VARINT_BYTES);
+			fBuffer.put(FrameTraceFormat.TAG_FRAME);
+			putVarint(time);
+			putVarint(function);
+			putVarint(file);
+			// Zigzag-encoded since the line can be negative, like -1 when unknown
+			putVarint(zigzag(record.getLine()));
+			putVarint(address);
+			putVarint(zigzag(record.getNumArgs()));
+			putVarint(session);
+			putVarint(thread);
+			putVarint(callPath);
+		}
+		fLastTimestamp = record.getTimestamp();
+	}
+
+	private int intern(String str) throws IOException {
+		if (str == null) {
+			return FrameTraceFormat.NULL_STRING_ID;
+		}
+		Integer id = fStringTable.get(str);
+		if (id != null) {
+			return id;
+		}
+
+		id = fStringTable.size() + 1;
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		int length = bytes.length;
+		if (length > MAX_STRING_BYTES) {
+			// Don't cut a character in half: back up to the start of one
+			length = MAX_STRING_BYTES;
+			while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+				length--;
+			}
+		}
+		ensureRemaining(1 + 2 * MAX_VARINT_BYTES + length);
+		fBuffer.put(FrameTraceFormat.TAG_STRING);
+		putVarint(id);
+		putVarint(length);
+		fBuffer.put(bytes, 0, length);
+		// Only known once defined, in case writing the buffer failed
+		fStringTable.put(str, id);
+		return id;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private void putVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			fBuffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		fBuffer.put((byte)value);
+	}
+
+	private void ensureRemaining(int bytes) throws IOException {
+		if (fBuffer.remaining() < bytes) {
+			writeBuffer();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		fBuffer.flip();
+		while (fBuffer.hasRemaining()) {
+			fChannel.write(fBuffer);
+		}
+		fBuffer.clear();
+	}
+
+	@Override
+	protected void writeIdle() {
+		// The buffer is only written when full, to keep writes large
+	}
+
+	@Override
+	protected void writeEnd() throws IOException {
+		writeBuffer();
+	}
+
+	@Override
+	protected void closeOutput() throws IOException {
+		fChannel.close();
+	}
+}
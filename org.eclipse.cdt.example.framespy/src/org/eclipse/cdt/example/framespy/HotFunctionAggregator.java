@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts the frame records of each function, and of each line of each
+ * function, to find where the program stops the most.
+ *
+ * Function names are interned in a {@link SymbolTable} and counted in
+ * {@link LongCounterMap}s, so recording a frame does not allocate once
+ * its function has been seen.
+ *
+ * Not thread-safe; the view only uses it on the UI thread.
+ */
+public class HotFunctionAggregator {
+
+	/**
+	 * The number of hits of a function, or of a line of a function.
+	 */
+	public static class HotSpot {
+		private final String fFunction;
+		private final int fLine;
+		private final long fHits;
+
+		HotSpot(String function, int line, long hits) {
+			fFunction = function;
+			fLine = line;
+			fHits = hits;
+		}
+
+		public String getFunction() {
+			return fFunction;
+		}
+
+		/**
+		 * Returns the line, or -1 for the hits of the function as a whole.
+		 */
+		public int getLine() {
+			return fLine;
+		}
+
+		public long getHits() {
+			return fHits;
+		}
+	}
+
+	private final SymbolTable fFunctions = new SymbolTable();
+	// Keyed by function id
+	private final LongCounterMap fFunctionHits = new LongCounterMap();
+	// Keyed by function id in the upper half and line in the lower half
+	private final LongCounterMap fLineHits = new LongCounterMap();
+	private long fTotalHits;
+
+	public void record(FrameRecord record) {
+		if (record.isSuppressedSummary() || record.getFunction() == null) {
+			return;
+		}
+		int function = fFunctions.intern(record.getFunction());
+		fFunctionHits.increment(function);
+		fLineHits.increment(((long)function << 32) | (record.getLine() & 0xFFFFFFFFL));
+		fTotalHits++;
+	}
+
+	public long getTotalHits() {
+		return fTotalHits;
+	}
+
+	/**
+	 * Returns the functions with the most hits, most hit first.
+	 */
+	public List<HotSpot> getTopFunctions(int count) {
+		return getTop(fFunctionHits, false, count);
+	}
+
+	/**
+	 * Returns the lines with the most hits, most hit first.
+	 */
+	public List<HotSpot> getTopLines(int count) {
+		return getTop(fLineHits, true, count);
+	}
+
+	private List<HotSpot> getTop(LongCounterMap counters, final boolean perLine, final int count) {
+		// Keep the best entries seen so far, the least hit at the head
+		final PriorityQueue<long[]> top = new PriorityQueue<>(count + 1, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] entry1, long[] entry2) {
+				return Long.compare(entry1[1], entry2[1]);
+			}
+		});
+		counters.forEach(new LongCounterMap.IVisitor() {
+			@Override
+			public void visit(long key, long hits) {
+				if (top.size() < count) {
+					top.add(new long[] { key, hits });
+				} else if (count > 0 && hits > top.peek()[1]) {
+					top.poll();
+					top.add(new long[] { key, hits });
+				}
+			}
+		});
+
+		List<HotSpot> result = new ArrayList<>(top.size());
+		for (long[] entry : top) {
+			long key = entry[0];
+			if (perLine) {
+				result.add(new HotSpot(fFunctions.getSymbol((int)(key >>> 32)), (int)key, entry[1]));
+			} else {
+				result.add(new HotSpot(fFunctions.getSymbol((int)key), -1, entry[1]));
+			}
+		}
+		Collections.sort(result, new Comparator<HotSpot>() {
+			@Override
+			public int compare(HotSpot spot1, HotSpot spot2) {
+				return Long.compare(spot2.getHits(), spot1.getHits());
+			}
+		});
+		return result;
+	}
+
+	public void clear() {
+		fFunctions.clear();
+		fFunctionHits.clear();
+		fLineHits.clear();
+		fTotalHits = 0;
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+
+/**
+ * Shows the functions, or lines, where the spied threads suspended
+ * the most, as counted by a {@link HotFunctionAggregator}.  The table
+ * shows the top {@link #TOP_COUNT} entries, refreshed at a fixed rate
+ * and sorted on the column the user selects.
+ *
+ * Must only be used on the UI thread.
+ */
+public class HotFunctionsPanel {
+
+	private static final int TOP_COUNT = 100;
+	private static final int REFRESH_INTERVAL = 500;
+	private static final String[] COLUMN_NAMES = { "Function", "Line", "Hits", "%" };
+	private static final int[] COLUMN_WIDTHS = { 250, 60, 80, 60 };
+	private static final int COLUMN_FUNCTION = 0;
+	private static final int COLUMN_LINE = 1;
+
+	private final HotFunctionAggregator fAggregator = new HotFunctionAggregator();
+	private final Composite fComposite;
+	private final Table fTable;
+	private final Button fPerLineButton;
+	private int fSortColumn = 2;
+	private int fSortDirection = SWT.DOWN;
+	// Total number of hits when the table was last refreshed
+	private long fShownHits = -1;
+
+	private final Runnable fRefresher = new Runnable() {
+		@Override
+		public void run() {
+			if (fTable.isDisposed()) {
+				return;
+			}
+			if (fTable.isVisible() && fShownHits != fAggregator.getTotalHits()) {
+				refresh();
+			}
+			fTable.getDisplay().timerExec(REFRESH_INTERVAL, this);
+		}
+	};
+
+	public HotFunctionsPanel(Composite parent) {
+		fComposite = new Composite(parent, SWT.NONE);
+		fComposite.setLayout(new GridLayout(2, false));
+
+		fPerLineButton = new Button(fComposite, SWT.CHECK);
+		fPerLineButton.setText("Count per line");
+		fPerLineButton.addListener(SWT.Selection, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				refresh();
+			}
+		});
+		Button resetButton = new Button(fComposite, SWT.PUSH);
+		resetButton.setText("Reset");
+		resetButton.addListener(SWT.Selection, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				fAggregator.clear();
+				refresh();
+			}
+		});
+
+		fTable = new Table(fComposite, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.FULL_SELECTION);
+		fTable.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 2, 1));
+		fTable.setHeaderVisible(true);
+		for (int i = 0; i < COLUMN_NAMES.length; i++) {
+			final int columnIndex = i;
+			final TableColumn column = new TableColumn(fTable, i == COLUMN_FUNCTION ? SWT.LEFT : SWT.RIGHT);
+			column.setText(COLUMN_NAMES[i]);
+			column.setWidth(COLUMN_WIDTHS[i]);
+			column.addListener(SWT.Selection, new Listener() {
+				@Override
+				public void handleEvent(Event event) {
+					// Clicking the sort column again reverses the order
+					if (fSortColumn == columnIndex) {
+						fSortDirection = fSortDirection == SWT.DOWN ? SWT.UP : SWT.DOWN;
+					} else {
+						fSortColumn = columnIndex;
+						fSortDirection = columnIndex == COLUMN_FUNCTION || columnIndex == COLUMN_LINE ? SWT.UP : SWT.DOWN;
+					}
+					refresh();
+				}
+			});
+		}
+		fTable.setSortColumn(fTable.getColumn(fSortColumn));
+		fTable.setSortDirection(fSortDirection);
+
+		fTable.getDisplay().timerExec(REFRESH_INTERVAL, fRefresher);
+	}
+
+	public Control getControl() {
+		return fComposite;
+	}
+
+	/**
+	 * Counts the specified records.  The table is updated at the next refresh.
+	 */
+	public void addRecords(List<FrameRecord> records) {
+		for (FrameRecord record : records) {
+			fAggregator.record(record);
+		}
+	}
+
+	private void refresh() {
+		boolean perLine = fPerLineButton.getSelection();
+		List<HotFunctionAggregator.HotSpot> spots = perLine ? fAggregator.getTopLines(TOP_COUNT) : fAggregator.getTopFunctions(TOP_COUNT);
+		Collections.sort(spots, getComparator());
+
+		long totalHits = fAggregator.getTotalHits();
+		fTable.setItemCount(spots.size());
+		for (int i = 0; i < spots.size(); i++) {
+			HotFunctionAggregator.HotSpot spot = spots.get(i);
+			TableItem item = fTable.getItem(i);
+			item.setText(new String[] {
+					spot.getFunction(),
+					spot.getLine() < 0 ? "" : Integer.toString(spot.getLine()),
+					Long.toString(spot.getHits()),
+					String.format("%.1f", 100.0 * spot.getHits() / totalHits)
+			});
+		}
+		fTable.setSortColumn(fTable.getColumn(fSortColumn));
+		fTable.setSortDirection(fSortDirection);
+		fShownHits = totalHits;
+	}
+
+	private Comparator<HotFunctionAggregator.HotSpot> getComparator() {
+		final int column = fSortColumn;
+		final int sign = fSortDirection == SWT.UP ? 1 : -1;
+		return new Comparator<HotFunctionAggregator.HotSpot>() {
+			@Override
+			public int compare(HotFunctionAggregator.HotSpot spot1, HotFunctionAggregator.HotSpot spot2) {
+				int result;
+				switch (column) {
+				case COLUMN_FUNCTION:
+					result = spot1.getFunction().compareTo(spot2.getFunction());
+					break;
+				case COLUMN_LINE:
+					result = Integer.compare(spot1.getLine(), spot2.getLine());
+					break;
+				default:
+					// Hits and percentage
+					result = Long.compare(spot1.getHits(), spot2.getHits());
+					break;
+				}
+				return sign * result;
+			}
+		};
+	}
+
+	public void dispose() {
+		if (!fTable.isDisposed()) {
+			fTable.getDisplay().timerExec(-1, fRefresher);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * Launch configuration attributes specific to Frame Spy launches.
+ */
+public interface IFrameSpyLaunchConstants {
+
+	/**
+	 * Boolean attribute: whether GDB's verbose output is captured, and the
+	 * symbol loading timed, during the phases of the launch that load symbols.
+	 * Verbose mode is off during the rest of the launch either way.  Off by
+	 * default, since the verbose output slows down symbol loading and the
+	 * timing summary is logged.
+	 */
+	public static final String ATTR_VERBOSE_CAPTURE = Activator.PLUGIN_ID + ".verboseCapture"; //$NON-NLS-1$
+
+	public static final boolean DEBUGGER_VERBOSE_CAPTURE_DEFAULT = false;
+
+	/**
+	 * Map attribute: GDB settings to apply at launch, before connecting to
+	 * the target.  Keys are setting names as given to "set", e.g.
+	 * "pagination" or "print elements", and values their value.
+	 */
+	public static final String ATTR_GDB_SETTINGS = Activator.PLUGIN_ID + ".gdbSettings"; //$NON-NLS-1$
+}
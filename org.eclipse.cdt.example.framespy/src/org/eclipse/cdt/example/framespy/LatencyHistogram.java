@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, such as durations in
+ * nanoseconds or sizes in bytes.
+ *
+ * Like HdrHistogram, values are grouped in buckets whose width grows with
+ * the magnitude of the value: each power of two is split in
+ * {@link #SUB_BUCKETS} equal buckets, so any recorded value is known
+ * within 1/{@value #SUB_BUCKETS} of its magnitude, whatever its range.
+ * Recording a value is a few atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray fCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong fTotalCount = new AtomicLong();
+	private final AtomicLong fTotalValue = new AtomicLong();
+	private final AtomicLong fMax = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		fCounts.incrementAndGet(getBucketIndex(value));
+		fTotalCount.incrementAndGet();
+		fTotalValue.addAndGet(value);
+
+		long max;
+		while (value > (max = fMax.get())) {
+			if (fMax.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	private static int getBucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int)value;
+		}
+		// Position of the highest bit, at least SUB_BUCKET_BITS here
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int subBucket = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value that falls in the specified bucket.
+	 */
+	private static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public long getCount() {
+		return fTotalCount.get();
+	}
+
+	public long getMax() {
+		return fMax.get();
+	}
+
+	public long getMean() {
+		long count = fTotalCount.get();
+		return count == 0 ? 0 : fTotalValue.get() / count;
+	}
+
+	/**
+	 * Returns an upper bound of the specified percentile of the recorded values.
+	 * @param percentile between 0 and 100
+	 */
+	public long getPercentile(double percentile) {
+		long count = fTotalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += fCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(getBucketUpperBound(i), fMax.get());
+			}
+		}
+		return fMax.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			fCounts.set(i, 0);
+		}
+		fTotalCount.set(0);
+		fTotalValue.set(0);
+		fMax.set(0);
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The start time and duration of every step of a launch sequence.
+ * Steps are added on the DSF executor as they complete.
+ */
+public class LaunchTimeline {
+
+	public static class Entry {
+		private final String fStepName;
+		private final long fStartOffset;
+		private final long fDuration;
+		private final boolean fIndependent;
+		private final boolean fSuccess;
+
+		Entry(String stepName, long startOffset, long duration, boolean independent, boolean success) {
+			fStepName = stepName;
+			fStartOffset = startOffset;
+			fDuration = duration;
+			fIndependent = independent;
+			fSuccess = success;
+		}
+
+		public String getStepName() {
+			return fStepName;
+		}
+
+		/**
+		 * Returns the time between the start of the sequence and the start of the step, in nanoseconds.
+		 */
+		public long getStartOffset() {
+			return fStartOffset;
+		}
+
+		/**
+		 * Returns the time the step took to complete, in nanoseconds.
+		 */
+		public long getDuration() {
+			return fDuration;
+		}
+
+		/**
+		 * Returns whether the step ran concurrently with the steps following it.
+		 */
+		public boolean isIndependent() {
+			return fIndependent;
+		}
+
+		public boolean isSuccess() {
+			return fSuccess;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%+8.1f ms %8.1f ms  %s%s%s", //$NON-NLS-1$
+					fStartOffset / 1e6, fDuration / 1e6, fStepName,
+					fIndependent ? " (independent)" : "", //$NON-NLS-1$ //$NON-NLS-2$
+					fSuccess ? "" : " (failed)"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	private final long fStartTime = System.nanoTime();
+	private final List<Entry> fEntries = Collections.synchronizedList(new ArrayList<Entry>());
+	private volatile long fEndTime;
+
+	void addStep(String stepName, long startTime, long endTime, boolean independent, boolean success) {
+		fEntries.add(new Entry(stepName, startTime - fStartTime, endTime - startTime, independent, success));
+	}
+
+	void end() {
+		fEndTime = System.nanoTime();
+	}
+
+	/**
+	 * Returns the steps in the order they completed.
+	 */
+	public List<Entry> getEntries() {
+		synchronized (fEntries) {
+			return new ArrayList<>(fEntries);
+		}
+	}
+
+	/**
+	 * Returns the total duration of the sequence in nanoseconds, or -1 if it is still running.
+	 */
+	public long getTotalDuration() {
+		return fEndTime == 0 ? -1 : fEndTime - fStartTime;
+	}
+}
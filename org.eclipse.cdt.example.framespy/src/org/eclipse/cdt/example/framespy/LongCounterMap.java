@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * A map of counters keyed by <code>long</code>, stored in primitive arrays
+ * with open addressing, so that counting never boxes or allocates except
+ * when the map grows.  The key 0 is reserved and cannot be used.
+ *
+ * Not thread-safe.
+ */
+public class LongCounterMap {
+
+	public interface IVisitor {
+		void visit(long key, long count);
+	}
+
+	private static final int MIN_CAPACITY = 64;
+
+	// Both arrays have a power of two length; a key of 0 marks a free slot
+	private long[] fKeys;
+	private long[] fCounts;
+	private int fSize;
+
+	public LongCounterMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongCounterMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		fKeys = new long[capacity];
+		fCounts = new long[capacity];
+	}
+
+	/**
+	 * Adds delta to the counter of the specified key and returns the new count.
+	 */
+	public long add(long key, long delta) {
+		if (key == 0) {
+			throw new IllegalArgumentException("Key 0 is reserved"); //$NON-NLS-1$
+		}
+		int slot = findSlot(fKeys, key);
+		if (fKeys[slot] == 0) {
+			if ((fSize + 1) * 2 > fKeys.length) {
+				grow();
+				slot = findSlot(fKeys, key);
+			}
+			fKeys[slot] = key;
+			fSize++;
+		}
+		return fCounts[slot] += delta;
+	}
+
+	public long increment(long key) {
+		return add(key, 1);
+	}
+
+	public long get(long key) {
+		if (key == 0) {
+			return 0;
+		}
+		int slot = findSlot(fKeys, key);
+		return fKeys[slot] == 0 ? 0 : fCounts[slot];
+	}
+
+	public int size() {
+		return fSize;
+	}
+
+	public void forEach(IVisitor visitor) {
+		for (int i = 0; i < fKeys.length; i++) {
+			if (fKeys[i] != 0) {
+				visitor.visit(fKeys[i], fCounts[i]);
+			}
+		}
+	}
+
+	public void clear() {
+		fKeys = new long[MIN_CAPACITY];
+		fCounts = new long[MIN_CAPACITY];
+		fSize = 0;
+	}
+
+	/**
+	 * Returns the slot of the key, or the free slot where it would go.
+	 */
+	private static int findSlot(long[] keys, long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int hash(long key) {
+		// Spread the bits since keys are often small or share their low bits
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	private void grow() {
+		long[] oldKeys = fKeys;
+		long[] oldCounts = fCounts;
+		fKeys = new long[oldKeys.length * 2];
+		fCounts = new long[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = findSlot(fKeys, oldKeys[i]);
+				fKeys[slot] = oldKeys[i];
+				fCounts[slot] = oldCounts[i];
+			}
+		}
+	}
+}
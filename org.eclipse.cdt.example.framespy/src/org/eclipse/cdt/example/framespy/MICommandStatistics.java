@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * An immutable snapshot of the statistics of one type of MI command,
+ * as collected by {@link FrameSpyControlService}.  Durations are
+ * in nanoseconds and sizes in characters of MI output.
+ */
+public class MICommandStatistics {
+
+	private final String fOperation;
+	private final long fCount;
+	private final long fQueueWaitP50;
+	private final long fQueueWaitP99;
+	private final long fRoundTripP50;
+	private final long fRoundTripP99;
+	private final long fRoundTripMax;
+	private final long fMeanOutputSize;
+	private final long fMaxOutputSize;
+
+	MICommandStatistics(String operation, LatencyHistogram queueWait, LatencyHistogram roundTrip, LatencyHistogram outputSize) {
+		fOperation = operation;
+		fCount = roundTrip.getCount();
+		fQueueWaitP50 = queueWait.getPercentile(50);
+		fQueueWaitP99 = queueWait.getPercentile(99);
+		fRoundTripP50 = roundTrip.getPercentile(50);
+		fRoundTripP99 = roundTrip.getPercentile(99);
+		fRoundTripMax = roundTrip.getMax();
+		fMeanOutputSize = outputSize.getMean();
+		fMaxOutputSize = outputSize.getMax();
+	}
+
+	/**
+	 * Returns the MI operation, e.g. "-stack-list-frames".
+	 */
+	public String getOperation() {
+		return fOperation;
+	}
+
+	/**
+	 * Returns the number of completed commands.
+	 */
+	public long getCount() {
+		return fCount;
+	}
+
+	/**
+	 * Median time between the command being queued and being sent to GDB.
+	 */
+	public long getQueueWaitP50() {
+		return fQueueWaitP50;
+	}
+
+	public long getQueueWaitP99() {
+		return fQueueWaitP99;
+	}
+
+	/**
+	 * Median time between the command being sent to GDB and its reply being processed.
+	 */
+	public long getRoundTripP50() {
+		return fRoundTripP50;
+	}
+
+	public long getRoundTripP99() {
+		return fRoundTripP99;
+	}
+
+	public long getRoundTripMax() {
+		return fRoundTripMax;
+	}
+
+	public long getMeanOutputSize() {
+		return fMeanOutputSize;
+	}
+
+	public long getMaxOutputSize() {
+		return fMaxOutputSize;
+	}
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class of the sinks writing {@link FrameRecord}s to a file.
+ *
+ * Records are handed to a background thread through a bounded queue, so
+ * that adding records never blocks, whether it is done by the engine on
+ * a DSF executor or by the UI; records that do not fit in the queue are
+ * dropped and counted.  Only the background thread calls the methods
+ * that write to the file.
+ *
+ * Subclasses must call {@link #start()} at the end of their constructor.
+ *
+ * This class is thread-safe.
+ */
+public abstract class QueuedRecordWriter implements Closeable, FrameSpyEngine.IRecordListener {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+	// Queued by close() to stop the writer thread once the queue is drained
+	private static final FrameRecord END_OF_RECORDS = FrameRecord.createSuppressedSummary(0, null, null, 1);
+	private static final long CLOSE_POLL_INTERVAL = 100;
+
+	private final BlockingQueue<FrameRecord> fQueue;
+	private final Thread fThread;
+	private final AtomicLong fDroppedRecords = new AtomicLong();
+	private final AtomicLong fWrittenRecords = new AtomicLong();
+	private volatile IOException fError;
+	private volatile boolean fClosed;
+
+	protected QueuedRecordWriter(String threadName, int queueCapacity) {
+		fQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+		fThread = new Thread(threadName) {
+			@Override
+			public void run() {
+				writeQueuedRecords();
+			}
+		};
+		fThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the writer thread.  Called once the subclass is fully constructed.
+	 */
+	protected void start() {
+		fThread.start();
+	}
+
+	/**
+	 * Queues the specified records to be written.  Never blocks.
+	 */
+	public void write(List<FrameRecord> records) {
+		for (FrameRecord record : records) {
+			recordProduced(record);
+		}
+	}
+
+	/**
+	 * Queues the specified record to be written.  Never blocks.
+	 */
+	@Override
+	public void recordProduced(FrameRecord record) {
+		if (!fClosed && !fQueue.offer(record)) {
+			fDroppedRecords.incrementAndGet();
+		}
+	}
+
+	@Override
+	public boolean isSaturated() {
+		return fQueue.remainingCapacity() == 0;
+	}
+
+	/**
+	 * Returns the number of records not written because the queue was full.
+	 */
+	public long getDroppedRecordCount() {
+		return fDroppedRecords.get();
+	}
+
+	public long getRecordCount() {
+		return fWrittenRecords.get();
+	}
+
+	/**
+	 * Writes the records still queued and closes the file.
+	 * @throws IOException if the writer thread failed at any point
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (fClosed) {
+				return;
+			}
+			fClosed = true;
+		}
+		// The writer thread makes room again, unless it failed and exited
+		boolean interrupted = false;
+		while (fThread.isAlive()) {
+			try {
+				if (fQueue.offer(END_OF_RECORDS, CLOSE_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+					fThread.join();
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (fError != null) {
+			throw fError;
+		}
+	}
+
+	private void writeQueuedRecords() {
+		List<FrameRecord> batch = new ArrayList<>();
+		try {
+			while (true) {
+				batch.add(fQueue.take());
+				fQueue.drainTo(batch);
+				for (FrameRecord record : batch) {
+					if (record == END_OF_RECORDS) {
+						writeEnd();
+						return;
+					}
+					writeRecord(record);
+					fWrittenRecords.incrementAndGet();
+				}
+				batch.clear();
+				if (fQueue.isEmpty()) {
+					writeIdle();
+				}
+			}
+		} catch (IOException e) {
+			fError = e;
+		} catch (InterruptedException e) {
+			// Only happens if some code interrupts our thread; give up
+			fError = new IOException("Record writer interrupted", e); //$NON-NLS-1$
+		} finally {
+			try {
+				closeOutput();
+			} catch (IOException e) {
+				if (fError == null) {
+					fError = e;
+				}
+			}
+			// Don't keep records if the writer failed before close() was called
+			fQueue.clear();
+		}
+	}
+
+	/**
+	 * Writes a record.  Called on the writer thread.
+	 */
+	protected abstract void writeRecord(FrameRecord record) throws IOException;
+
+	/**
+	 * Called on the writer thread when the queue is empty, for example to
+	 * flush what was written so far.
+	 */
+	protected abstract void writeIdle() throws IOException;
+
+	/**
+	 * Writes what ends the file, once every record was written.  Called on
+	 * the writer thread, unless writing failed earlier.
+	 */
+	protected abstract void writeEnd() throws IOException;
+
+	/**
+	 * Closes the file.  Called on the writer thread when it exits, even if
+	 * writing failed.
+	 */
+	protected abstract void closeOutput() throws IOException;
+}
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
+import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
+import org.eclipse.cdt.dsf.datamodel.DMContexts;
+import org.eclipse.cdt.dsf.debug.service.IRunControl;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
+import org.eclipse.cdt.dsf.debug.service.IRunControl.StateChangeReason;
+import org.eclipse.cdt.dsf.debug.service.IStack;
+import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
+import org.eclipse.cdt.dsf.mi.service.IMIContainerDMContext;
+import org.eclipse.cdt.dsf.mi.service.command.events.IMIDMEvent;
+import org.eclipse.cdt.dsf.mi.service.command.events.MISignalEvent;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIFrame;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIStackListFramesInfo;
+
+/**
+ * Periodically interrupts a process, records the top frames of all its
+ * threads in a {@link FoldedStacks}, and resumes it right away.
+ *
+ * The time the process spends stopped for each sample is measured, and
+ * the sampling rate is lowered as needed so that this time never exceeds
+ * the configured percentage of the run time.
+ *
+ * Samples are only taken while the process is running: if it is
+ * suspended by the user, a breakpoint or a signal, the sample is skipped and the
+ * process is never resumed by the profiler.
+ *
+ * Must only be used on the DSF executor.
+ */
+public class SamplingProfiler {
+
+	public static final int DEFAULT_RATE = 50;
+	public static final int DEFAULT_DEPTH = 16;
+	// Bounds the reply of -stack-list-frames for each thread of each sample
+	public static final int MAX_DEPTH = 64;
+	public static final double DEFAULT_MAX_OVERHEAD_PERCENT = 5;
+
+	// Give up on a sample if the process does not stop within this time
+	private static final long SUSPEND_TIMEOUT_MS = 1000;
+	// Weight of the last sample in the average cost of a sample
+	private static final double COST_SMOOTHING = 0.2;
+
+	private final FrameSpyService fService;
+	private final FoldedStacks fStacks = new FoldedStacks();
+
+	private IMIContainerDMContext fContainer;
+	private int fRate;
+	private int fDepth;
+	private double fMaxOverhead;
+	private boolean fRunning;
+
+	// Whether we asked the process to stop and it has not been resumed yet
+	private volatile boolean fSampleInProgress;
+	private boolean fWaitingForSuspend;
+	private long fSampleStart;
+	// Bumped for every sample, so that a late timeout is ignored
+	private int fSampleId;
+	// Average time the process is stopped for a sample, in nanoseconds
+	private double fAverageCost;
+	private long fPeriod;
+	private ScheduledFuture<?> fScheduledSample;
+	private ScheduledFuture<?> fSuspendTimeout;
+	private long fSkippedSamples;
+
+	public SamplingProfiler(FrameSpyService service) {
+		fService = service;
+	}
+
+	/**
+	 * Starts sampling the specified process.
+	 * @param rate The number of samples per second to take, if the overhead allows it
+	 * @param depth The number of frames recorded for each thread, up to {@link #MAX_DEPTH}
+	 * @param maxOverheadPercent The maximum percentage of time the process may be stopped
+	 */
+	public void start(IMIContainerDMContext container, int rate, int depth, double maxOverheadPercent) {
+		stop();
+		fContainer = container;
+		fRate = Math.max(1, rate);
+		fDepth = Math.max(1, Math.min(depth, MAX_DEPTH));
+		fMaxOverhead = Math.max(0.1, maxOverheadPercent) / 100;
+		fAverageCost = 0;
+		fPeriod = TimeUnit.SECONDS.toNanos(1) / fRate;
+		fRunning = true;
+		scheduleSample(fPeriod);
+	}
+
+	public void stop() {
+		fRunning = false;
+		if (fScheduledSample != null) {
+			fScheduledSample.cancel(false);
+			fScheduledSample = null;
+		}
+		// A sample in progress completes, so that the process is resumed
+	}
+
+	public boolean isRunning() {
+		return fRunning;
+	}
+
+	/**
+	 * Returns whether the profiler suspended the process and did not resume it yet.
+	 * Suspend events received meanwhile are caused by the profiler.
+	 * Can be called from any thread.
+	 */
+	public boolean isSampleInProgress() {
+		return fSampleInProgress;
+	}
+
+	public FoldedStacks getFoldedStacks() {
+		return fStacks;
+	}
+
+	/**
+	 * Returns the number of samples per second currently taken, which is
+	 * lower than the requested rate when samples are too costly.
+	 */
+	public double getCurrentRate() {
+		return fPeriod == 0 ? 0 : (double)TimeUnit.SECONDS.toNanos(1) / fPeriod;
+	}
+
+	/**
+	 * Returns the estimated fraction of time the process is stopped by the profiler.
+	 */
+	public double getMeasuredOverhead() {
+		return fPeriod == 0 ? 0 : fAverageCost / fPeriod;
+	}
+
+	/**
+	 * Returns the number of samples skipped because the process was already suspended.
+	 */
+	public long getSkippedSampleCount() {
+		return fSkippedSamples;
+	}
+
+	private void scheduleSample(long delay) {
+		fScheduledSample = fService.getExecutor().schedule(new DsfRunnable() {
+			@Override
+			public void run() {
+				fScheduledSample = null;
+				takeSample();
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private void takeSample() {
+		if (!fRunning) {
+			return;
+		}
+		IRunControl runControl = fService.getService(IRunControl.class);
+		if (runControl == null) {
+			stop();
+			return;
+		}
+		if (runControl.isSuspended(fContainer)) {
+			// Stopped by someone else, don't interfere
+			fSkippedSamples++;
+			scheduleSample(fPeriod);
+			return;
+		}
+
+		fSampleInProgress = true;
+		fWaitingForSuspend = true;
+		fSampleStart = System.nanoTime();
+		final int sampleId = ++fSampleId;
+		runControl.suspend(fContainer, new RequestMonitor(fService.getExecutor(), null) {
+			@Override
+			protected void handleError() {
+				abandonSample(sampleId);
+			}
+		});
+		fSuspendTimeout = fService.getExecutor().schedule(new DsfRunnable() {
+			@Override
+			public void run() {
+				abandonSample(sampleId);
+			}
+		}, SUSPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private void abandonSample(int sampleId) {
+		if (sampleId == fSampleId && fWaitingForSuspend) {
+			fWaitingForSuspend = false;
+			fSampleInProgress = false;
+			if (fRunning) {
+				scheduleSample(fPeriod);
+			}
+		}
+	}
+
+	/**
+	 * Must be called for every suspend event of the session.
+	 */
+	public void suspended(ISuspendedDMEvent event) {
+		if (!fWaitingForSuspend || !DMContexts.isAncestorOf(event.getDMContext(), fContainer)) {
+			return;
+		}
+
+		IRunControl runControl = fService.getService(IRunControl.class);
+		if (runControl == null) {
+			return;
+		}
+		if (!isInterrupt(event)) {
+			// A breakpoint, the end of a step or a signal of the program got
+			// there first: leave the process stopped for the user
+			fWaitingForSuspend = false;
+			fSampleInProgress = false;
+			cancelTimeout();
+			fSkippedSamples++;
+			if (fRunning) {
+				scheduleSample(fPeriod);
+			}
+			return;
+		}
+		if (!runControl.isSuspended(fContainer)) {
+			// In non-stop mode, wait for all threads to stop
+			return;
+		}
+
+		fWaitingForSuspend = false;
+		cancelTimeout();
+		captureStacks(new RequestMonitor(fService.getExecutor(), null) {
+			@Override
+			protected void handleCompleted() {
+				resume();
+			}
+		});
+	}
+
+	/**
+	 * Returns whether the event is the stop caused by our suspend request.
+	 * GDB reports it as a SIGINT in all-stop mode, and as signal "0" in
+	 * non-stop mode; any other signal really happened in the program.
+	 */
+	private static boolean isInterrupt(ISuspendedDMEvent event) {
+		if (event.getReason() == StateChangeReason.USER_REQUEST) {
+			return true;
+		}
+		if (event.getReason() != StateChangeReason.SIGNAL || !(event instanceof IMIDMEvent)) {
+			return false;
+		}
+		Object miEvent = ((IMIDMEvent)event).getMIEvent();
+		if (!(miEvent instanceof MISignalEvent)) {
+			return false;
+		}
+		String signal = ((MISignalEvent)miEvent).getName();
+		return "SIGINT".equals(signal) || "0".equals(signal); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void cancelTimeout() {
+		if (fSuspendTimeout != null) {
+			fSuspendTimeout.cancel(false);
+			fSuspendTimeout = null;
+		}
+	}
+
+	/**
+	 * Records the top frames of every thread of the process.  The
+	 * {@link FrameSpyStackService} gives the top frame of them all with
+	 * a single command; for a greater depth, the -stack-list-frames of
+	 * all threads are then queued together.  Functions are named as the
+	 * stack service names them, whatever the depth.
+	 */
+	private void captureStacks(final RequestMonitor rm) {
+		final IMICommandControl control = fService.getService(IMICommandControl.class);
+		IStack stackService = fService.getService(IStack.class);
+		if (control == null || !(stackService instanceof FrameSpyStackService)) {
+			rm.done();
+			return;
+		}
+
+		((FrameSpyStackService)stackService).getAllTopFrames(fContainer,
+				new DataRequestMonitor<List<FrameSpyStackService.ThreadTopFrame>>(fService.getExecutor(), rm) {
+			@Override
+			protected void handleSuccess() {
+				List<FrameSpyStackService.ThreadTopFrame> topFrames = getData();
+				if (fDepth == 1) {
+					for (FrameSpyStackService.ThreadTopFrame topFrame : topFrames) {
+						// Already wrapped by the stack service
+						fStacks.add(new String[] { topFrame.getFrameData().getFunction() });
+					}
+					rm.done();
+					return;
+				}
+
+				final CountingRequestMonitor crm = new CountingRequestMonitor(fService.getExecutor(), rm);
+				crm.setDoneCount(topFrames.size());
+				for (FrameSpyStackService.ThreadTopFrame topFrame : topFrames) {
+					control.queueCommand(
+							control.getCommandFactory().createMIStackListFrames(topFrame.getExecutionContext(), 0, fDepth - 1),
+							new DataRequestMonitor<MIStackListFramesInfo>(fService.getExecutor(), null) {
+						@Override
+						protected void handleCompleted() {
+							// A thread without a stack must not lose the others
+							if (isSuccess()) {
+								MIFrame[] frames = getData().getMIFrames();
+								String[] functions = new String[frames.length];
+								for (int i = 0; i < frames.length; i++) {
+									functions[i] = FrameSpyStackService.wrapFrameData(frames[i]).getFunction();
+								}
+								fStacks.add(functions);
+							}
+							crm.done();
+						}
+					});
+				}
+			}
+		});
+	}
+
+	private void resume() {
+		IRunControl runControl = fService.getService(IRunControl.class);
+		if (runControl == null) {
+			fSampleInProgress = false;
+			return;
+		}
+		runControl.resume(fContainer, new RequestMonitor(fService.getExecutor(), null) {
+			@Override
+			protected void handleCompleted() {
+				long cost = System.nanoTime() - fSampleStart;
+				fAverageCost = fAverageCost == 0 ? cost : COST_SMOOTHING * cost + (1 - COST_SMOOTHING) * fAverageCost;
+				fSampleInProgress = false;
+
+				// Space the samples so that the process runs at least
+				// (1 - max overhead) of the time
+				long requestedPeriod = TimeUnit.SECONDS.toNanos(1) / fRate;
+				fPeriod = Math.max(requestedPeriod, (long)(fAverageCost / fMaxOverhead));
+				if (fRunning) {
+					scheduleSample(Math.max(0, fPeriod - cost));
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives a small integer id to each distinct string, such as function
+ * names, so that they can be used as keys of primitive maps.
+ * Ids start at 1; 0 stands for <code>null</code>.  The id of a removed
+ * symbol is given to the next new one.
+ *
+ * Not thread-safe.
+ */
+public class SymbolTable {
+
+	public static final int NULL_ID = 0;
+
+	private final Map<String, Integer> fIds = new HashMap<>();
+	private final List<String> fSymbols = new ArrayList<>();
+	// Ids of the removed symbols, to be reused
+	private final List<Integer> fFreeIds = new ArrayList<>();
+
+	public SymbolTable() {
+		fSymbols.add(null);
+	}
+
+	public int intern(String symbol) {
+		if (symbol == null) {
+			return NULL_ID;
+		}
+		Integer id = fIds.get(symbol);
+		if (id == null) {
+			if (fFreeIds.isEmpty()) {
+				id = fSymbols.size();
+				fSymbols.add(symbol);
+			} else {
+				id = fFreeIds.remove(fFreeIds.size() - 1);
+				fSymbols.set(id, symbol);
+			}
+			fIds.put(symbol, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the specified symbol, or {@link #NULL_ID} if it was never interned.
+	 */
+	public int getId(String symbol) {
+		Integer id = symbol == null ? null : fIds.get(symbol);
+		return id == null ? NULL_ID : id;
+	}
+
+	public String getSymbol(int id) {
+		return fSymbols.get(id);
+	}
+
+	/**
+	 * Forgets the symbol with the specified id, which must no longer be used.
+	 */
+	public void remove(int id) {
+		String symbol = fSymbols.get(id);
+		if (symbol != null) {
+			fIds.remove(symbol);
+			fSymbols.set(id, null);
+			fFreeIds.add(id);
+		}
+	}
+
+	public int size() {
+		return fIds.size();
+	}
+
+	public void clear() {
+		fIds.clear();
+		fSymbols.clear();
+		fSymbols.add(null);
+		fFreeIds.clear();
+	}
+}
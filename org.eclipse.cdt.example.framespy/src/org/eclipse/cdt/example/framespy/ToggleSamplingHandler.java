@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+public class ToggleSamplingHandler extends AbstractHandler {
+	
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {	
+		FrameSpyView part = (FrameSpyView) HandlerUtil.getActivePartChecked(event);
+		if (!part.isSampling()) {
+			part.startSampling();
+			return null;
+		}
+
+		part.stopSampling();
+		FoldedStacks stacks = part.getSampledStacks();
+		if (stacks == null || stacks.getSampleCount() == 0) {
+			return null;
+		}
+
+		// Save the samples in the input format of flame graph tools
+		FileDialog dialog = new FileDialog(HandlerUtil.getActiveShellChecked(event), SWT.SAVE);
+		dialog.setText("Save Sampled Stacks");
+		dialog.setFilterExtensions(new String[] { "*.folded", "*.*" });
+		dialog.setOverwrite(true);
+		String path = dialog.open();
+		if (path != null) {
+			try (Writer writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+				stacks.write(writer);
+			} catch (IOException e) {
+				Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot save sampled stacks to " + path, e));
+			}
+		}
+		stacks.clear();
+		return null;
+	}
+}
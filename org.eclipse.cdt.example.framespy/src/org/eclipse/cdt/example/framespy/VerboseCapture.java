@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.cdt.dsf.debug.service.command.IEventListener;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIConsoleStreamOutput;
+import org.eclipse.cdt.dsf.mi.service.command.output.MILogStreamOutput;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOOBRecord;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOutput;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIStreamRecord;
+
+/**
+ * Collects the console output GDB prints in verbose mode, but only during
+ * the phases of the launch we are interested in, and times each phase
+ * and each library whose symbols are read during it.
+ *
+ * Output is received on the DSF executor and kept in a bounded buffer;
+ * the oldest lines are dropped when it is full.
+ */
+public class VerboseCapture implements IEventListener {
+
+	public static final int DEFAULT_MAX_LINES = 10000;
+
+	// What GDB prints when it starts reading the symbols of a file,
+	// e.g. "Reading symbols from /usr/lib/libfoo.so..."
+	private static final Pattern SYMBOLS_PATTERN = Pattern.compile("Reading (?:in )?symbols (?:from|for) (.+?)\\.\\.\\."); //$NON-NLS-1$
+
+	private final int fMaxLines;
+	// All fields below are guarded by this
+	private final ArrayDeque<String> fLines = new ArrayDeque<>();
+	private final List<String> fSummary = new ArrayList<>();
+	private long fDroppedLines;
+	private String fPhase;
+	private long fPhaseStart;
+	private String fLibrary;
+	private long fLibraryStart;
+
+	public VerboseCapture(int maxLines) {
+		fMaxLines = maxLines;
+	}
+
+	/**
+	 * Starts capturing the output of the specified phase.
+	 */
+	public synchronized void startPhase(String phase) {
+		endPhase();
+		fPhase = phase;
+		fPhaseStart = System.nanoTime();
+	}
+
+	/**
+	 * Stops capturing and adds the timings of the current phase to the summary.
+	 * @return the summary lines of the phase
+	 */
+	public synchronized List<String> endPhase() {
+		if (fPhase == null) {
+			return new ArrayList<>();
+		}
+		long now = System.nanoTime();
+		int first = fSummary.size();
+		endLibrary(now);
+		fSummary.add(fPhase + ": " + toMillis(now - fPhaseStart) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		fPhase = null;
+		return new ArrayList<>(fSummary.subList(first, fSummary.size()));
+	}
+
+	public synchronized boolean isCapturing() {
+		return fPhase != null;
+	}
+
+	@Override
+	public void eventReceived(Object output) {
+		if (!(output instanceof MIOutput)) {
+			return;
+		}
+		for (MIOOBRecord record : ((MIOutput)output).getMIOOBRecords()) {
+			if (record instanceof MIConsoleStreamOutput || record instanceof MILogStreamOutput) {
+				addOutput(((MIStreamRecord)record).getString());
+			}
+		}
+	}
+
+	private synchronized void addOutput(String text) {
+		if (fPhase == null || text == null) {
+			return;
+		}
+		for (String line : text.split("\n")) { //$NON-NLS-1$
+			if (line.isEmpty()) {
+				continue;
+			}
+			Matcher matcher = SYMBOLS_PATTERN.matcher(line);
+			if (matcher.find()) {
+				// GDB reads one file at a time, so the previous one is done
+				long now = System.nanoTime();
+				endLibrary(now);
+				fLibrary = matcher.group(1);
+				fLibraryStart = now;
+			}
+
+			if (fLines.size() >= fMaxLines) {
+				fLines.removeFirst();
+				fDroppedLines++;
+			}
+			fLines.addLast(line);
+		}
+	}
+
+	private void endLibrary(long now) {
+		if (fLibrary != null) {
+			String name = fLibrary.substring(fLibrary.lastIndexOf('/') + 1);
+			fSummary.add("symbols for " + name + ": " + toMillis(now - fLibraryStart) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			fLibrary = null;
+		}
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * Returns the captured output lines, oldest first.
+	 */
+	public synchronized List<String> getLines() {
+		return new ArrayList<>(fLines);
+	}
+
+	/**
+	 * Returns the number of lines dropped because the buffer was full.
+	 */
+	public synchronized long getDroppedLineCount() {
+		return fDroppedLines;
+	}
+
+	/**
+	 * Returns the timing of every phase and library captured so far,
+	 * for example "symbols for libfoo.so: 840 ms".
+	 */
+	public synchronized List<String> getSummary() {
+		return new ArrayList<>(fSummary);
+	}
+
+	public synchronized void clear() {
+		fLines.clear();
+		fSummary.clear();
+		fDroppedLines = 0;
+	}
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
+import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
+import org.eclipse.cdt.dsf.datamodel.IDMContext;
+import org.eclipse.cdt.dsf.debug.service.IExpressions;
+import org.eclipse.cdt.dsf.debug.service.IExpressions.IExpressionDMContext;
+import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIVarChange;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIVarCreateInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIVarUpdateInfo;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Records the values of expressions chosen by the user, such as counters
+ * or queue depths, each time the spy logs a frame.
+ *
+ * A floating GDB variable object is created for each expression, so that
+ * it is evaluated in the frame GDB selected when the thread stopped.
+ * Updating variable objects only returns the values that changed since
+ * the last update, so unchanged values cost no parsing and are not
+ * recorded.  The changed values go to the {@link WatchValueBuffer} of the
+ * {@link FrameSpyEngine}.
+ *
+ * All the expressions are updated at once, with "-var-update *", so each
+ * stop costs a single command whatever the number of expressions.  That
+ * command also updates the variable objects of the Variables and
+ * Expressions views, which would then miss the changes it reports; as
+ * soon as it reports one, the expressions are updated one at a time
+ * instead, for the rest of the session.
+ *
+ * Must only be used on the DSF executor.
+ */
+public class WatchSpy {
+
+	private static final String ALL_VARIABLE_OBJECTS = "*"; //$NON-NLS-1$
+
+	private final FrameSpyService fService;
+	// Watched expressions by the name of their variable object
+	private final Map<String, String> fWatches = new LinkedHashMap<>();
+	private boolean fSharedVariableObjects;
+	private long fUpdateCount;
+	private long fChangeCount;
+
+	public WatchSpy(FrameSpyService service) {
+		fService = service;
+	}
+
+	/**
+	 * Starts watching the specified expression.  Its current value, in the
+	 * specified context, is recorded right away.
+	 */
+	public void addExpression(final IDMContext context, final String expression, final RequestMonitor rm) {
+		IMICommandControl control = fService.getService(IMICommandControl.class);
+		IExpressions expressions = fService.getService(IExpressions.class);
+		if (control == null || expressions == null) {
+			rm.done(new Status(IStatus.ERROR, Activator.PLUGIN_ID, IDsfStatusConstants.INTERNAL_ERROR,
+					"Cannot find command control or expressions service", null));
+			return;
+		}
+
+		// "-" lets GDB name the object, "@" makes it floating
+		IExpressionDMContext expressionDmc = expressions.createExpression(context, expression);
+		control.queueCommand(
+				control.getCommandFactory().createMIVarCreate(expressionDmc, "-", "@", expression), //$NON-NLS-1$ //$NON-NLS-2$
+				new DataRequestMonitor<MIVarCreateInfo>(fService.getExecutor(), rm) {
+					@Override
+					protected void handleSuccess() {
+						fWatches.put(getData().getName(), expression);
+						recordValue(FrameSpyClock.now(), context, expression, getData().getValue());
+						rm.done();
+					}
+				});
+	}
+
+	/**
+	 * Stops watching all expressions and deletes their variable objects.
+	 */
+	public void removeExpressions(RequestMonitor rm) {
+		IMICommandControl control = fService.getService(IMICommandControl.class);
+		List<String> varNames = new ArrayList<>(fWatches.keySet());
+		fWatches.clear();
+		if (control == null) {
+			rm.done();
+			return;
+		}
+
+		CountingRequestMonitor crm = new CountingRequestMonitor(fService.getExecutor(), rm);
+		crm.setDoneCount(varNames.size());
+		for (String varName : varNames) {
+			control.queueCommand(
+					control.getCommandFactory().createMIVarDelete(control.getContext(), varName),
+					new DataRequestMonitor<MIInfo>(fService.getExecutor(), crm));
+		}
+	}
+
+	/**
+	 * Forgets the expressions without deleting their variable objects.
+	 * Used when the session is shutting down.
+	 */
+	public void dispose() {
+		fWatches.clear();
+	}
+
+	/**
+	 * Records the values of the watched expressions that changed, evaluated
+	 * in the specified suspended context.  An expression that cannot be
+	 * evaluated in this context is not recorded.
+	 */
+	public void update(final IDMContext context, RequestMonitor rm) {
+		IMICommandControl control = fService.getService(IMICommandControl.class);
+		if (control == null || fWatches.isEmpty()) {
+			rm.done();
+			return;
+		}
+
+		fUpdateCount++;
+		final long time = FrameSpyClock.now();
+		if (!fSharedVariableObjects) {
+			updateVariableObject(control, ALL_VARIABLE_OBJECTS, time, context, rm);
+			return;
+		}
+
+		// The updates are queued at once, without waiting for each other's reply
+		CountingRequestMonitor crm = new CountingRequestMonitor(fService.getExecutor(), rm);
+		crm.setDoneCount(fWatches.size());
+		for (String varName : fWatches.keySet()) {
+			updateVariableObject(control, varName, time, context, crm);
+		}
+	}
+
+	private void updateVariableObject(IMICommandControl control, String varName, final long time,
+			final IDMContext context, final RequestMonitor rm) {
+		control.queueCommand(
+				control.getCommandFactory().createMIVarUpdate(control.getContext(), varName),
+				new DataRequestMonitor<MIVarUpdateInfo>(fService.getExecutor(), null) {
+					@Override
+					protected void handleCompleted() {
+						if (isSuccess()) {
+							// Only the objects that changed are listed
+							for (MIVarChange change : getData().getMIVarChanges()) {
+								String expression = fWatches.get(change.getVarName());
+								if (expression == null) {
+									// A variable object of the views
+									fSharedVariableObjects = true;
+								} else if (change.isInScope()) {
+									recordValue(time, context, expression, change.getValue());
+								}
+							}
+						}
+						rm.done();
+					}
+				});
+	}
+
+	private void recordValue(long time, IDMContext context, String expression, String value) {
+		fChangeCount++;
+		FrameSpyEngine.getWatchValues().add(time, fService.getSession().getId(),
+				FrameSpyService.getThreadId(context), expression, value);
+	}
+
+	public int getExpressionCount() {
+		return fWatches.size();
+	}
+
+	/**
+	 * Returns the number of times the expressions were updated.
+	 */
+	public long getUpdateCount() {
+		return fUpdateCount;
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long getChangeCount() {
+		return fChangeCount;
+	}
+}
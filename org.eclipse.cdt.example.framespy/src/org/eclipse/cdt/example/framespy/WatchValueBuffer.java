@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.cdt.example.framespy;
+
+/**
+ * A fixed-capacity ring buffer of the values taken by watched expressions,
+ * see {@link WatchSpy}.
+ *
+ * Values are stored by column, in primitive arrays, rather than as one
+ * object per value: sessions, threads and expressions are interned in a
+ * {@link SymbolTable}, and integer values, which is what counters and
+ * queue depths are, are kept as longs, as are addresses.  Other values are
+ * kept as text in their slot, so that they go away with it.  Values are
+ * read by sequence number, see {@link #get(long)}.
+ *
+ * This class is thread-safe.
+ */
+public class WatchValueBuffer {
+
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	private static final byte KIND_TEXT = 0;
+	private static final byte KIND_DECIMAL = 1;
+	private static final byte KIND_HEX = 2;
+	private static final String HEX_PREFIX = "0x"; //$NON-NLS-1$
+
+	private final long[] fTimestamps;
+	private final int[] fSessions;
+	private final int[] fThreads;
+	private final int[] fExpressions;
+	private final long[] fNumbers;
+	private final byte[] fKinds;
+	// Only set for the values of KIND_TEXT
+	private final String[] fTexts;
+	private final SymbolTable fSymbols = new SymbolTable();
+	private int fHead;
+	private int fSize;
+	private long fAddedCount;
+
+	public WatchValueBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Buffer capacity must be positive"); //$NON-NLS-1$
+		}
+		fTimestamps = new long[capacity];
+		fSessions = new int[capacity];
+		fThreads = new int[capacity];
+		fExpressions = new int[capacity];
+		fNumbers = new long[capacity];
+		fKinds = new byte[capacity];
+		fTexts = new String[capacity];
+	}
+
+	/**
+	 * Adds a value, as printed by GDB.
+	 * @param threadId The thread in which the expression was evaluated, or null
+	 */
+	public synchronized void add(long timestamp, String sessionId, String threadId, String expression, String value) {
+		fTimestamps[fHead] = timestamp;
+		fSessions[fHead] = fSymbols.intern(sessionId);
+		fThreads[fHead] = fSymbols.intern(threadId);
+		fExpressions[fHead] = fSymbols.intern(expression);
+		Long number = parseInteger(value);
+		if (number != null) {
+			fNumbers[fHead] = number;
+			fKinds[fHead] = value.startsWith(HEX_PREFIX) ? KIND_HEX : KIND_DECIMAL;
+			fTexts[fHead] = null;
+		} else {
+			fNumbers[fHead] = 0;
+			fKinds[fHead] = KIND_TEXT;
+			fTexts[fHead] = value == null ? "" : value; //$NON-NLS-1$
+		}
+		fHead = (fHead + 1) % fTimestamps.length;
+		fSize = Math.min(fSize + 1, fTimestamps.length);
+		fAddedCount++;
+	}
+
+	/**
+	 * Returns the value of a number printed by GDB in decimal or in hexadecimal, or null.
+	 */
+	private static Long parseInteger(String value) {
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		// Check the characters first rather than letting most text values throw
+		boolean hex = value.startsWith(HEX_PREFIX);
+		int digits = hex ? HEX_PREFIX.length() : value.charAt(0) == '-' ? 1 : 0;
+		if (digits == value.length()) {
+			return null;
+		}
+		for (int i = digits; i < value.length(); i++) {
+			if (Character.digit(value.charAt(i), hex ? 16 : 10) < 0) {
+				return null;
+			}
+		}
+		try {
+			return hex ? Long.parseUnsignedLong(value.substring(digits), 16) : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// Too large for a long
+			return null;
+		}
+	}
+
+	/**
+	 * A value of the buffer, copied out of its columns.
+	 */
+	public static class Value {
+		private final long fTimestamp;
+		private final String fSessionId;
+		private final String fThreadId;
+		private final String fExpression;
+		private final String fText;
+
+		Value(long timestamp, String sessionId, String threadId, String expression, String text) {
+			fTimestamp = timestamp;
+			fSessionId = sessionId;
+			fThreadId = threadId;
+			fExpression = expression;
+			fText = text;
+		}
+
+		public long getTimestamp() {
+			return fTimestamp;
+		}
+
+		public String getSessionId() {
+			return fSessionId;
+		}
+
+		/**
+		 * Returns the thread in which the expression was evaluated, or null.
+		 */
+		public String getThreadId() {
+			return fThreadId;
+		}
+
+		public String getExpression() {
+			return fExpression;
+		}
+
+		/**
+		 * Returns the value as text.
+		 */
+		public String getValue() {
+			return fText;
+		}
+	}
+
+	/**
+	 * Returns the value with the specified sequence number, its position
+	 * among all the values ever added, or null if it was evicted or not
+	 * added yet.  Unlike an index, a sequence number keeps designating the
+	 * same value while other threads add more.
+	 */
+	public synchronized Value get(long sequence) {
+		if (sequence < fAddedCount - fSize || sequence >= fAddedCount) {
+			return null;
+		}
+		int slot = (int)((fHead - (fAddedCount - sequence) + fTimestamps.length) % fTimestamps.length);
+		String text;
+		switch (fKinds[slot]) {
+		case KIND_DECIMAL:
+			text = Long.toString(fNumbers[slot]);
+			break;
+		case KIND_HEX:
+			text = HEX_PREFIX + Long.toHexString(fNumbers[slot]);
+			break;
+		default:
+			text = fTexts[slot];
+			break;
+		}
+		return new Value(fTimestamps[slot], fSymbols.getSymbol(fSessions[slot]),
+				fSymbols.getSymbol(fThreads[slot]), fSymbols.getSymbol(fExpressions[slot]), text);
+	}
+
+	public synchronized int size() {
+		return fSize;
+	}
+
+	/**
+	 * Returns the number of values ever added, to tell whether the buffer changed.
+	 */
+	public synchronized long getAddedCount() {
+		return fAddedCount;
+	}
+
+	public synchronized void clear() {
+		fSymbols.clear();
+		for (int i = 0; i < fTexts.length; i++) {
+			fTexts[i] = null;
+		}
+		fHead = 0;
+		fSize = 0;
+		fAddedCount = 0;
+	}
+}